@@ -2,6 +2,7 @@ package org.kevinoff.samplecode;
 
 import org.kevinoff.samplecode.samples.DotNotationMapExample;
 import org.kevinoff.samplecode.samples.StreamingSample;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -13,12 +14,23 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class Application implements CommandLineRunner{
 
+    /**
+     * Builds the shared object mappers' serializers before the first request.
+     * Turn it off with samplecode.jackson.warm-up=false
+     */
+    @Value("${samplecode.jackson.warm-up:true}")
+    private boolean warmUpObjectMapper;
+
     public static void main(String... args) {
         SpringApplication.run(Application.class, args);
     }
 
     @Override
     public void run(String... args) throws Exception {
+        if (warmUpObjectMapper){
+            NgitwsObjectMapper.warmUp();
+        }
+        
         DotNotationMapExample one = new DotNotationMapExample();
         one.runSample();
         
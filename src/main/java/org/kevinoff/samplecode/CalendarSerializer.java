@@ -32,7 +32,7 @@ public class CalendarSerializer extends JsonSerializer<Calendar>{
     @Override
     public void serialize(Calendar t, JsonGenerator jg, SerializerProvider sp) throws IOException, JsonProcessingException {
 
-        jg.writeString(DateUtil.calendarToString(t));
+        DateFormatter.write(t.getTimeInMillis(), t.getTimeZone(), jg);
 
     }
         
@@ -9,6 +9,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  *
@@ -21,4 +23,50 @@ public interface CloseableIterator<T> extends Closeable{
     public T next() throws IOException, JsonProcessingException;
     public List<T> toList()throws IOException, JsonProcessingException;
     
+    /**
+     * Reads the rest of the records into a list that holds at most about
+     * maxBytes of them in memory and spills the rest to a temp file. The
+     * iterator is closed when it is done. Close the list to delete the file.
+     * 
+     * @param maxBytes The most bytes of records to hold in memory
+     * @return The list
+     * @throws IOException If a record can't be read or spilled
+     * @see SpillableList
+     */
+    public default SpillableList<T> toList(long maxBytes) throws IOException {
+        return SpillableList.collect(this, maxBytes);
+    }
+    
+    /**
+     * Gets how many records are left, if the iterator knows it
+     * 
+     * @return The number of records left, or -1 if it isn't known
+     */
+    public default long knownSize(){
+        return -1;
+    }
+    
+    /**
+     * Gets a sequential Stream of the records. Closing the stream closes this
+     * iterator, so use it in a try-with-resources block. A record that can't be
+     * read is thrown as an UncheckedIOException.
+     * 
+     * @return The stream
+     */
+    public default Stream<T> stream(){
+        return StreamSupport.stream(new CloseableIteratorSpliterator<>(this), false).onClose(CloseableIteratorSpliterator.closer(this));
+    }
+    
+    /**
+     * Gets a parallel Stream of the records. The records are still read on the
+     * thread that pulls from the stream, but they are handed to the other
+     * workers in batches so the work done on them downstream is shared.
+     * Closing the stream closes this iterator.
+     * 
+     * @return The stream
+     */
+    public default Stream<T> parallelStream(){
+        return StreamSupport.stream(new CloseableIteratorSpliterator<>(this), true).onClose(CloseableIteratorSpliterator.closer(this));
+    }
+    
 }
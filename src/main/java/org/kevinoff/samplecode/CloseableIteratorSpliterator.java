@@ -0,0 +1,124 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * The Spliterator behind {@link CloseableIterator#stream()}.
+ * <p>
+ * It splits the same way the JDK's iterator spliterator does: each split reads
+ * the next batch of records into an array and hands that off, and each batch is
+ * BATCH_UNIT records bigger than the one before it. The records are read on the
+ * thread that splits, and whatever is done to them downstream runs on the
+ * workers that pick up the batches. The spliterator reports SIZED when the
+ * iterator knows how many records it has left.
+ *
+ * @author kevin.off
+ * @param <T> The type of the records
+ */
+final class CloseableIteratorSpliterator<T> implements Spliterator<T> {
+
+    private static final int BATCH_UNIT = 1 << 10;
+    private static final int MAX_BATCH = 1 << 25;
+
+    private final CloseableIterator<T> iterator;
+    private final int characteristics;
+    private long est;
+    private int batch = 0;
+
+    CloseableIteratorSpliterator(CloseableIterator<T> iterator){
+        this.iterator = iterator;
+        long size = iterator.knownSize();
+        if (size >= 0){
+            this.est = size;
+            this.characteristics = ORDERED | SIZED | SUBSIZED;
+        }else{
+            this.est = Long.MAX_VALUE;
+            this.characteristics = ORDERED;
+        }
+    }
+
+    /**
+     * Gets a Stream close handler that closes the iterator
+     *
+     * @param closeable What to close
+     * @return The handler
+     */
+    static Runnable closer(Closeable closeable){
+        return () -> {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Problem closing the iterator", ex);
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (est <= 1 || !iterator.hasNext()){
+            return null;
+        }
+        int n = batch + BATCH_UNIT;
+        if (n > est){
+            n = (int)est;
+        }
+        if (n > MAX_BATCH){
+            n = MAX_BATCH;
+        }
+        Object[] records = new Object[n];
+        int j = 0;
+        do {
+            records[j] = read();
+        } while (++j < n && iterator.hasNext());
+        batch = j;
+        if (est != Long.MAX_VALUE){
+            est -= j;
+        }
+        return Spliterators.spliterator(records, 0, j, characteristics);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (!iterator.hasNext()){
+            return false;
+        }
+        action.accept(read());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        while (iterator.hasNext()){
+            action.accept(read());
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        return est;
+    }
+
+    @Override
+    public int characteristics() {
+        return characteristics;
+    }
+
+    private T read(){
+        try {
+            return iterator.next();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Problem reading the next record", ex);
+        }
+    }
+
+}
@@ -0,0 +1,1070 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A DotNotationMap that stores its entries in far less memory when there are
+ * a lot of maps with the same keys, like the records of one collection.
+ * <p>
+ * Instead of an entry object per key, the map points to a shared {@link Shape}
+ * that holds the keys in order and knows the slot of each one, and keeps its
+ * values in a flat array in the same order. Every map that had the same keys
+ * added in the same order points to the same Shape, so the keys and the lookup
+ * table are held once for all of them and each map only costs its value array.
+ * Adding a key moves the map to the next Shape, and removing one moves it to
+ * the Shape without that key, so the maps stay shared as long as the records
+ * look alike. Maps with too many keys, or keys that are too varied to share,
+ * get a Shape of their own.
+ * <p>
+ * Shared Shapes are kept for the life of the process, so at most
+ * MAX_SHARED_SHAPES of them are ever made. The cap is for the whole process
+ * and is never reset: once {@link #sharedShapeCount()} reaches it, maps with
+ * a key order that hasn't been seen yet get unshared Shapes and use about as
+ * much memory as a DotNotationMap, while the key orders already seen stay
+ * shared. Watch the count if a process reads a lot of differently shaped
+ * records.
+ * <p>
+ * Everything else works the same as a DotNotationMap: the dot notation, the
+ * date conversion, the iteration order and the Map views. Maps and lists
+ * created inside a compact map are compact as well, and a
+ * JsonInputStreamToIterator made with this class reads the records straight
+ * into compact maps.
+ * <pre>
+ * JsonInputStreamToIterator&lt;CompactDotNotationMap&gt; iterator = JsonInputStreamToIterator.makeIterator(is, CompactDotNotationMap.class);
+ * </pre>
+ * Like a LinkedHashMap it is not thread safe.
+ *
+ * @author kevin.off
+ */
+public class CompactDotNotationMap extends DotNotationMap {
+
+    /**
+     * The most Shapes that are ever shared in the process
+     */
+    public static final int MAX_SHARED_SHAPES = 8192;
+
+    private static final Object[] NO_VALUES = {};
+    private static final int MIN_CAPACITY = 8;
+
+    private transient Shape shape = Shape.EMPTY;
+    private transient Object[] values = NO_VALUES;
+    /**
+     * The bits of the numbers that are kept unboxed, in the same slots as the
+     * Unboxed markers in values. It is null until the first one is stored and
+     * is otherwise as long as values.
+     */
+    private transient long[] bits = null;
+    private transient int modCount = 0;
+
+    /**
+     * Creates an instance
+     */
+    public CompactDotNotationMap(){}
+
+    /**
+     * Creates an instance that may defer date parsing
+     *
+     * @param lazyDates true to parse date strings on first read instead of when they are set
+     */
+    public CompactDotNotationMap(boolean lazyDates){
+        super(lazyDates);
+    }
+
+    /**
+     * Creates an instance by copying the values from the given map
+     *
+     * @param vals The map to copy
+     */
+    public CompactDotNotationMap(Map<String, ?> vals){
+        this.putAll(vals);
+    }
+
+    /**
+     * Creates an instance by copying the values from the given DotNotationMap.
+     * A map copied from another compact map shares its Shape.
+     *
+     * @param map The map to copy
+     */
+    public CompactDotNotationMap(DotNotationMap map){
+        super(map.isLazyDates());
+        if (map instanceof CompactDotNotationMap){
+            copyFrom((CompactDotNotationMap)map);
+        }else{
+            for (Map.Entry<String, Object> entry : map.entrySet()){
+                this.rawPut(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void copyFrom(CompactDotNotationMap map){
+        int size = map.shape.size;
+        this.shape = map.shape.isShared() ? map.shape : map.shape.copy();
+        this.values = Arrays.copyOf(map.values, size);
+        this.bits = (map.bits == null) ? null : Arrays.copyOf(map.bits, size);
+    }
+
+    @Override
+    Storage storage(){
+        return Storage.COMPACT;
+    }
+
+    @Override
+    Object rawGet(String key){
+        int slot = shape.slotOf(key);
+        return (slot < 0) ? null : value(slot);
+    }
+
+    @Override
+    Object rawPut(String key, Object value){
+        int size = shape.size;
+        int slot = slotFor(key);
+        Object old = (slot < size) ? value(slot) : null;
+        set(slot, value);
+        return old;
+    }
+
+    /**
+     * Puts an int in the map without boxing it
+     *
+     * @param key The key
+     * @param value The value
+     */
+    void putInt(String key, int value){
+        setBits(slotFor(key), Unboxed.INT, value);
+    }
+
+    /**
+     * Puts a long in the map without boxing it
+     *
+     * @param key The key
+     * @param value The value
+     */
+    void putLong(String key, long value){
+        setBits(slotFor(key), Unboxed.LONG, value);
+    }
+
+    /**
+     * Puts a double in the map without boxing it
+     *
+     * @param key The key
+     * @param value The value
+     */
+    void putDouble(String key, double value){
+        setBits(slotFor(key), Unboxed.DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Gets the slot of the key, adding it after the others if it is new
+     */
+    private int slotFor(String key){
+        int size = shape.size;
+        //Records that look alike add their keys in the order the first one did
+        Shape next = shape.firstChild;
+        if (next == null || next.keys[size] != key){
+            int slot = shape.slotOf(key);
+            if (slot >= 0){
+                return slot;
+            }
+            next = shape.with(key);
+        }
+        if (size == values.length){
+            int capacity = Math.max(MIN_CAPACITY, size + (size >> 1));
+            values = Arrays.copyOf(values, capacity);
+            if (bits != null){
+                bits = Arrays.copyOf(bits, capacity);
+            }
+        }
+        shape = next;
+        modCount++;
+        return size;
+    }
+
+    /**
+     * Gets the value in the slot, boxing it if it is kept unboxed
+     */
+    private Object value(int slot){
+        Object value = values[slot];
+        if (value instanceof Unboxed){
+            switch ((Unboxed)value){
+                case INT:
+                    return (int)bits[slot];
+                case LONG:
+                    return bits[slot];
+                default:
+                    return Double.longBitsToDouble(bits[slot]);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Sets the value in the slot. A map that keeps numbers unboxed unboxes
+     * Integers, Longs and Doubles.
+     */
+    private void set(int slot, Object value){
+        if (value instanceof Number && storage() == Storage.PRIMITIVE){
+            Class<?> type = value.getClass();
+            if (type == Integer.class){
+                setBits(slot, Unboxed.INT, (Integer)value);
+                return;
+            }else if (type == Long.class){
+                setBits(slot, Unboxed.LONG, (Long)value);
+                return;
+            }else if (type == Double.class){
+                setBits(slot, Unboxed.DOUBLE, Double.doubleToRawLongBits((Double)value));
+                return;
+            }
+        }
+        values[slot] = value;
+    }
+
+    private void setBits(int slot, Unboxed type, long value){
+        if (bits == null){
+            bits = new long[values.length];
+        }
+        values[slot] = type;
+        bits[slot] = value;
+    }
+
+    @Override
+    long longValue(String key, Object path){
+        int slot = shape.slotOf(key);
+        if (slot >= 0 && values[slot] instanceof Unboxed){
+            return (values[slot] == Unboxed.DOUBLE) ? (long)Double.longBitsToDouble(bits[slot]) : bits[slot];
+        }
+        return super.longValue(key, path);
+    }
+
+    @Override
+    int intValue(String key, Object path){
+        int slot = shape.slotOf(key);
+        if (slot >= 0 && values[slot] instanceof Unboxed){
+            return (values[slot] == Unboxed.DOUBLE) ? (int)Double.longBitsToDouble(bits[slot]) : (int)bits[slot];
+        }
+        return super.intValue(key, path);
+    }
+
+    @Override
+    double doubleValue(String key, Object path){
+        int slot = shape.slotOf(key);
+        if (slot >= 0 && values[slot] instanceof Unboxed){
+            return (values[slot] == Unboxed.DOUBLE) ? Double.longBitsToDouble(bits[slot]) : (double)bits[slot];
+        }
+        return super.doubleValue(key, path);
+    }
+
+    @Override
+    boolean rawContainsKey(String key){
+        return shape.slotOf(key) >= 0;
+    }
+
+    @Override
+    Object rawRemove(String key){
+        int slot = shape.slotOf(key);
+        return (slot < 0) ? null : removeSlot(slot);
+    }
+
+    /**
+     * Removes the entry in the slot and moves the ones after it down
+     */
+    private Object removeSlot(int slot){
+        Object old = value(slot);
+        int size = shape.size;
+        System.arraycopy(values, slot + 1, values, slot, size - slot - 1);
+        values[size - 1] = null;
+        if (bits != null){
+            System.arraycopy(bits, slot + 1, bits, slot, size - slot - 1);
+        }
+        shape = shape.without(slot);
+        modCount++;
+        return old;
+    }
+
+    /**
+     * Shrinks the value array to the number of entries. The readers call this
+     * once a record has been read.
+     */
+    @Override
+    public void trimToSize(){
+        if (values.length > shape.size){
+            values = (shape.size == 0) ? NO_VALUES : Arrays.copyOf(values, shape.size);
+            if (bits != null){
+                bits = (shape.size == 0) ? null : Arrays.copyOf(bits, shape.size);
+            }
+        }
+    }
+
+    /**
+     * Gets the key in the slot
+     *
+     * @param slot The slot
+     * @return The key
+     */
+    String keyAt(int slot){
+        return shape.keys[slot];
+    }
+
+    /**
+     * Gets the value in the slot, boxing it if it is kept unboxed
+     *
+     * @param slot The slot
+     * @return The value
+     */
+    Object valueAt(int slot){
+        return value(slot);
+    }
+
+    /**
+     * Checks if the value in the slot is kept unboxed
+     *
+     * @param slot The slot
+     * @return true for an unboxed number
+     */
+    boolean isUnboxed(int slot){
+        return values[slot] instanceof Unboxed;
+    }
+
+    /**
+     * Checks if the map has room for unboxed numbers
+     *
+     * @return true if the map holds an array of number bits
+     */
+    boolean hasUnboxed(){
+        return bits != null;
+    }
+
+    /**
+     * Writes the fields of this map to the generator. Unboxed numbers are
+     * written straight from their bits.
+     *
+     * @param generator The generator, inside the object
+     * @param provider The provider for the other values
+     * @throws IOException If the JSON can't be written
+     */
+    void writeFields(JsonGenerator generator, SerializerProvider provider) throws IOException {
+        Shape s = shape;
+        //Neighbouring values are often the same type, so keep the last serializer
+        Class<?> lastType = null;
+        JsonSerializer<Object> serializer = null;
+        for (int i = 0; i < s.size; i++){
+            generator.writeFieldName(s.keys[i]);
+            Object value = values[i];
+            if (value == Unboxed.INT){
+                generator.writeNumber((int)bits[i]);
+            }else if (value == Unboxed.LONG){
+                generator.writeNumber(bits[i]);
+            }else if (value == Unboxed.DOUBLE){
+                generator.writeNumber(Double.longBitsToDouble(bits[i]));
+            }else if (value == null){
+                provider.defaultSerializeNull(generator);
+            }else{
+                if (value.getClass() != lastType){
+                    lastType = value.getClass();
+                    serializer = provider.findTypedValueSerializer(lastType, true, null);
+                }
+                serializer.serialize(value, generator, provider);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of Shapes that are shared in the process. When it
+     * reaches MAX_SHARED_SHAPES no more are made.
+     *
+     * @return The count
+     */
+    public static int sharedShapeCount(){
+        return Shape.sharedCount();
+    }
+
+    /**
+     * Checks if this map shares its keys with other maps
+     *
+     * @return true if the map's Shape is shared
+     */
+    boolean isShared(){
+        return shape.isShared();
+    }
+
+    /**
+     * Gets the length of the value array
+     *
+     * @return The number of values the map can hold before it grows
+     */
+    int capacity(){
+        return values.length;
+    }
+
+    @Override
+    public int size(){
+        return shape.size;
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return shape.size == 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value){
+        for (int i = 0; i < shape.size; i++){
+            if (Objects.equals(value, value(i))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear(){
+        if (shape.size > 0){
+            modCount++;
+        }
+        shape = Shape.EMPTY;
+        values = NO_VALUES;
+        bits = null;
+    }
+
+    @Override
+    public Set<String> keySet(){
+        return new KeySet();
+    }
+
+    @Override
+    public Collection<Object> values(){
+        return new Values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet(){
+        return new EntrySet();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action){
+        int expected = modCount;
+        for (int i = 0; i < shape.size; i++){
+            action.accept(shape.keys[i], value(i));
+            if (modCount != expected){
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function){
+        int expected = modCount;
+        for (int i = 0; i < shape.size; i++){
+            set(i, function.apply(shape.keys[i], value(i)));
+            if (modCount != expected){
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /*
+     * The default methods below work on the stored entries without dot
+     * notation or conversion, the way the LinkedHashMap ones do for a
+     * DotNotationMap.
+     */
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue){
+        int slot = slotOf(key);
+        return (slot < 0) ? defaultValue : value(slot);
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value){
+        int slot = shape.slotOf(key);
+        if (slot >= 0 && values[slot] != null){
+            return value(slot);
+        }
+        return rawPut(key, value);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value){
+        int slot = slotOf(key);
+        if (slot >= 0 && Objects.equals(value(slot), value)){
+            removeSlot(slot);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue){
+        int slot = shape.slotOf(key);
+        if (slot >= 0 && Objects.equals(value(slot), oldValue)){
+            set(slot, newValue);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Object replace(String key, Object value){
+        int slot = shape.slotOf(key);
+        if (slot < 0){
+            return null;
+        }
+        Object old = value(slot);
+        set(slot, value);
+        return old;
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction){
+        int slot = shape.slotOf(key);
+        if (slot >= 0 && values[slot] != null){
+            return value(slot);
+        }
+        int expected = modCount;
+        Object value = mappingFunction.apply(key);
+        if (modCount != expected){
+            throw new ConcurrentModificationException();
+        }
+        if (value != null){
+            rawPut(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction){
+        int slot = shape.slotOf(key);
+        if (slot < 0 || values[slot] == null){
+            return null;
+        }
+        int expected = modCount;
+        Object value = remappingFunction.apply(key, value(slot));
+        if (modCount != expected){
+            throw new ConcurrentModificationException();
+        }
+        if (value == null){
+            removeSlot(slot);
+        }else{
+            set(slot, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction){
+        int slot = shape.slotOf(key);
+        Object old = (slot < 0) ? null : value(slot);
+        int expected = modCount;
+        Object value = remappingFunction.apply(key, old);
+        if (modCount != expected){
+            throw new ConcurrentModificationException();
+        }
+        if (value != null){
+            rawPut(key, value);
+        }else if (slot >= 0){
+            removeSlot(slot);
+        }
+        return value;
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction){
+        if (value == null || remappingFunction == null){
+            throw new NullPointerException();
+        }
+        int slot = shape.slotOf(key);
+        if (slot < 0 || values[slot] == null){
+            rawPut(key, value);
+            return value;
+        }
+        int expected = modCount;
+        Object merged = remappingFunction.apply(value(slot), value);
+        if (modCount != expected){
+            throw new ConcurrentModificationException();
+        }
+        if (merged == null){
+            removeSlot(slot);
+        }else{
+            set(slot, merged);
+        }
+        return merged;
+    }
+
+    /**
+     * Creates a shallow copy of the same class that shares this map's Shape
+     * when it can
+     *
+     * @return The copy
+     */
+    @Override
+    public Object clone(){
+        //HashMap.clone would copy the entries into the unused LinkedHashMap storage
+        CompactDotNotationMap copy = (CompactDotNotationMap)newMap();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    private int slotOf(Object key){
+        return (key instanceof String) ? shape.slotOf((String)key) : -1;
+    }
+
+    private void writeObject(ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        int size = shape.size;
+        s.writeInt(size);
+        for (int i = 0; i < size; i++){
+            s.writeObject(shape.keys[i]);
+            s.writeObject(value(i));
+        }
+    }
+
+    private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        int size = s.readInt();
+        shape = Shape.EMPTY;
+        values = (size == 0) ? NO_VALUES : new Object[size];
+        bits = null;
+        for (int i = 0; i < size; i++){
+            rawPut((String)s.readObject(), s.readObject());
+        }
+    }
+
+    /**
+     * Walks the slots in order. Removing through the iterator moves the
+     * following entries down, so the next slot stays the same.
+     */
+    private abstract class SlotIterator<E> implements Iterator<E> {
+        private int next = 0;
+        private int last = -1;
+        private int expected = modCount;
+
+        @Override
+        public boolean hasNext(){
+            return next < shape.size;
+        }
+
+        int nextSlot(){
+            if (modCount != expected){
+                throw new ConcurrentModificationException();
+            }
+            if (next >= shape.size){
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return last;
+        }
+
+        @Override
+        public void remove(){
+            if (last < 0){
+                throw new IllegalStateException();
+            }
+            if (modCount != expected){
+                throw new ConcurrentModificationException();
+            }
+            removeSlot(last);
+            next = last;
+            last = -1;
+            expected = modCount;
+        }
+    }
+
+    private final class KeySet extends AbstractSet<String> {
+        @Override
+        public Iterator<String> iterator(){
+            return new SlotIterator<String>(){
+                @Override
+                public String next(){
+                    return shape.keys[nextSlot()];
+                }
+            };
+        }
+
+        @Override
+        public int size(){
+            return shape.size;
+        }
+
+        @Override
+        public boolean contains(Object o){
+            return slotOf(o) >= 0;
+        }
+
+        @Override
+        public boolean remove(Object o){
+            int slot = slotOf(o);
+            if (slot < 0){
+                return false;
+            }
+            removeSlot(slot);
+            return true;
+        }
+
+        @Override
+        public void clear(){
+            CompactDotNotationMap.this.clear();
+        }
+    }
+
+    private final class Values extends AbstractCollection<Object> {
+        @Override
+        public Iterator<Object> iterator(){
+            return new SlotIterator<Object>(){
+                @Override
+                public Object next(){
+                    return value(nextSlot());
+                }
+            };
+        }
+
+        @Override
+        public int size(){
+            return shape.size;
+        }
+
+        @Override
+        public boolean contains(Object o){
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear(){
+            CompactDotNotationMap.this.clear();
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator(){
+            return new SlotIterator<Map.Entry<String, Object>>(){
+                @Override
+                public Map.Entry<String, Object> next(){
+                    int slot = nextSlot();
+                    return new SlotEntry(shape.keys[slot], slot);
+                }
+            };
+        }
+
+        @Override
+        public int size(){
+            return shape.size;
+        }
+
+        @Override
+        public boolean contains(Object o){
+            if (!(o instanceof Map.Entry)){
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>)o;
+            int slot = slotOf(entry.getKey());
+            return slot >= 0 && Objects.equals(value(slot), entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o){
+            if (!(o instanceof Map.Entry)){
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>)o;
+            return CompactDotNotationMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear(){
+            CompactDotNotationMap.this.clear();
+        }
+    }
+
+    /**
+     * An entry that reads and writes through to the map. It remembers its slot
+     * and only looks the key up again if the entries have moved.
+     */
+    private final class SlotEntry implements Map.Entry<String, Object> {
+        private final String key;
+        private int slot;
+
+        private SlotEntry(String key, int slot){
+            this.key = key;
+            this.slot = slot;
+        }
+
+        private int slot(){
+            if (slot >= shape.size || shape.keys[slot] != key){
+                slot = shape.slotOf(key);
+            }
+            return slot;
+        }
+
+        @Override
+        public String getKey(){
+            return key;
+        }
+
+        @Override
+        public Object getValue(){
+            int s = slot();
+            return (s < 0) ? null : value(s);
+        }
+
+        @Override
+        public Object setValue(Object value){
+            int s = slot();
+            if (s < 0){
+                throw new IllegalStateException("The entry for " + key + " has been removed");
+            }
+            Object old = value(s);
+            set(s, value);
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (!(o instanceof Map.Entry)){
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>)o;
+            return key.equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode(){
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString(){
+            return key + "=" + getValue();
+        }
+    }
+
+    /**
+     * Marks a slot whose number is kept in bits instead of values
+     */
+    private enum Unboxed {
+        INT, LONG, DOUBLE
+    }
+
+    /**
+     * The ordered keys of a map and the slot each one is in.
+     * <p>
+     * Shared Shapes never change once they are made, so any number of maps and
+     * threads can use one. Each keeps the Shapes that add one more key to it,
+     * which makes a tree rooted at EMPTY where every distinct order of keys is
+     * one path. The keys of shared Shapes are interned, which lets a lookup
+     * with a key from the parser match by identity. To keep the tree from
+     * growing without bound the sharing stops at MAX_SHARED_KEYS keys, at
+     * MAX_TRANSITIONS branches from one Shape and at MAX_SHARED_SHAPES Shapes
+     * in all, after which a map gets an unshared Shape that it changes in
+     * place. The count of Shapes is never reset since the shared ones are
+     * never freed.
+     */
+    static final class Shape {
+
+        private static final int MAX_SHARED_KEYS = 128;
+        private static final int MAX_TRANSITIONS = 32;
+        private static final int LINEAR_LIMIT = 8;
+        private static final AtomicInteger SHAPE_COUNT = new AtomicInteger();
+
+        static final Shape EMPTY = new Shape(new String[0], 0, true);
+
+        private String[] keys;
+        private int size;
+        private final boolean shared;
+        /**
+         * Open addressing table of slot + 1, or null while the keys are few
+         * enough to scan
+         */
+        private int[] table;
+        private final ConcurrentHashMap<String, Shape> transitions;
+        /**
+         * The first Shape made from this one. Its last key is known not to be
+         * in this Shape, so adding that key needs no lookup.
+         */
+        private volatile Shape firstChild;
+
+        private Shape(String[] keys, int size, boolean shared){
+            this.keys = keys;
+            this.size = size;
+            this.shared = shared;
+            this.transitions = shared ? new ConcurrentHashMap<>() : null;
+            buildTable();
+        }
+
+        boolean isShared(){
+            return shared;
+        }
+
+        /**
+         * Gets the number of Shapes that are shared
+         *
+         * @return The count, not including EMPTY
+         */
+        static int sharedCount(){
+            return SHAPE_COUNT.get();
+        }
+
+        /**
+         * Gets the slot of the key
+         *
+         * @param key The key
+         * @return The slot or -1 if the key isn't in the Shape
+         */
+        int slotOf(String key){
+            String[] k = keys;
+            if (table == null){
+                for (int i = 0; i < size; i++){
+                    if (k[i] == key){
+                        return i;
+                    }
+                }
+                for (int i = 0; i < size; i++){
+                    if (k[i].equals(key)){
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            int[] t = table;
+            int mask = t.length - 1;
+            for (int i = spread(key.hashCode()) & mask; ; i = (i + 1) & mask){
+                int slot = t[i] - 1;
+                if (slot < 0){
+                    return -1;
+                }
+                if (k[slot] == key || k[slot].equals(key)){
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * Gets the Shape with the key added after the others. An unshared
+         * Shape adds it to itself.
+         *
+         * @param key A key that isn't in the Shape
+         * @return The new Shape
+         */
+        Shape with(String key){
+            if (!shared){
+                append(key);
+                return this;
+            }
+            Shape next = transitions.get(key);
+            if (next != null){
+                return next;
+            }
+            if (size < MAX_SHARED_KEYS && transitions.size() < MAX_TRANSITIONS && SHAPE_COUNT.get() < MAX_SHARED_SHAPES){
+                String[] nextKeys = Arrays.copyOf(keys, size + 1);
+                nextKeys[size] = key.intern();
+                Shape created = new Shape(nextKeys, size + 1, true);
+                next = transitions.putIfAbsent(nextKeys[size], created);
+                if (next != null){
+                    return next;
+                }
+                if (firstChild == null){
+                    firstChild = created;
+                }
+                SHAPE_COUNT.incrementAndGet();
+                return created;
+            }
+            Shape own = new Shape(Arrays.copyOf(keys, size + Math.max(LINEAR_LIMIT, size >> 1)), size, false);
+            own.append(key);
+            return own;
+        }
+
+        /**
+         * Gets the Shape without the key in the slot. An unshared Shape
+         * removes it from itself.
+         *
+         * @param slot The slot to remove
+         * @return The new Shape
+         */
+        Shape without(int slot){
+            if (!shared){
+                System.arraycopy(keys, slot + 1, keys, slot, size - slot - 1);
+                keys[--size] = null;
+                buildTable();
+                return this;
+            }
+            Shape next = EMPTY;
+            for (int i = 0; i < size; i++){
+                if (i != slot){
+                    next = next.with(keys[i]);
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Copies an unshared Shape for another map
+         *
+         * @return The copy
+         */
+        Shape copy(){
+            return new Shape(Arrays.copyOf(keys, size), size, false);
+        }
+
+        private void append(String key){
+            if (size == keys.length){
+                keys = Arrays.copyOf(keys, size + Math.max(LINEAR_LIMIT, size >> 1));
+            }
+            keys[size++] = key;
+            if (table != null && size * 2 <= table.length){
+                insert(table, key, size - 1);
+            }else{
+                buildTable();
+            }
+        }
+
+        private void buildTable(){
+            if (size <= LINEAR_LIMIT){
+                table = null;
+                return;
+            }
+            int[] t = new int[Integer.highestOneBit(size * 4 - 1)];
+            for (int i = 0; i < size; i++){
+                insert(t, keys[i], i);
+            }
+            table = t;
+        }
+
+        private static void insert(int[] t, String key, int slot){
+            int mask = t.length - 1;
+            int i = spread(key.hashCode()) & mask;
+            while (t[i] != 0){
+                i = (i + 1) & mask;
+            }
+            t[i] = slot + 1;
+        }
+
+        private static int spread(int h){
+            return h ^ (h >>> 16);
+        }
+    }
+
+}
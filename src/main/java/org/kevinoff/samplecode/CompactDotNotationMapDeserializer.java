@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import java.io.IOException;
+
+/**
+ * A custom Deserializer used in Jackson2Json to build a CompactDotNotationMap in a
+ * single pass over the tokens using {@link DotNotationTreeReader}.
+ * 
+ * @author kevin.off
+ */
+public class CompactDotNotationMapDeserializer extends StdDeserializer<CompactDotNotationMap>{
+
+    public CompactDotNotationMapDeserializer(){
+        super(CompactDotNotationMap.class);
+    }
+
+    /**
+     * Builds a new CompactDotNotationMap from the current JSON value
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @return The new CompactDotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public CompactDotNotationMap deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return (CompactDotNotationMap)DotNotationTreeReader.readMap(p, ctxt, new CompactDotNotationMap());
+    }
+
+    /**
+     * Adds the current JSON value to an existing CompactDotNotationMap
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @param intoValue the CompactDotNotationMap to fill
+     * @return The filled CompactDotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public CompactDotNotationMap deserialize(JsonParser p, DeserializationContext ctxt, CompactDotNotationMap intoValue) throws IOException {
+        return (CompactDotNotationMap)DotNotationTreeReader.readMap(p, ctxt, intoValue);
+    }
+
+}
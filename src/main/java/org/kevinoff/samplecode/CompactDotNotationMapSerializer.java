@@ -0,0 +1,53 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.util.TreeMap;
+
+/**
+ * A custom Serializer used in Jackson2Json to write a CompactDotNotationMap
+ * straight from its slots, without an entry object for each field. The numbers
+ * a {@link PrimitiveDotNotationMap} keeps unboxed are written without boxing
+ * them. The JSON is the same as a regular Map gives.
+ * 
+ * @author kevin.off
+ */
+public class CompactDotNotationMapSerializer extends StdSerializer<CompactDotNotationMap>{
+
+    public CompactDotNotationMapSerializer(){
+        super(CompactDotNotationMap.class);
+    }
+
+    /**
+     * Writes the map as a JSON object
+     * 
+     * @param map The map to write
+     * @param generator the generator
+     * @param provider the provider
+     * @throws IOException If there is an issue writing the JSON
+     */
+    @Override
+    public void serialize(CompactDotNotationMap map, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        if (provider.isEnabled(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)){
+            provider.defaultSerializeValue(new TreeMap<>(map), generator);
+            return;
+        }
+        generator.writeStartObject(map);
+        map.writeFields(generator, provider);
+        generator.writeEndObject();
+    }
+
+    @Override
+    public boolean isEmpty(SerializerProvider provider, CompactDotNotationMap map) {
+        return map.isEmpty();
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The formatting engine behind {@link DateUtil}, {@link DateSerializer} and
+ * {@link CalendarSerializer}.
+ * <p>
+ * It writes yyyy-MM-dd'T'HH:mm:ssZ (with +0000 written as Z) straight into a
+ * char buffer without creating a SimpleDateFormat or a Calendar. Each thread
+ * has its own buffer which also remembers the last second and day it formatted,
+ * so values that repeat or are close together only rewrite what changed. The
+ * offsets of zones that never change are cached per zone.
+ * <p>
+ * Dates outside the years 1583 to 9999 and default locales that do not use a
+ * Gregorian calendar with ASCII digits are still formatted with SimpleDateFormat
+ * so the output is always identical to the original implementation.
+ *
+ * @author kevin.off
+ */
+public final class DateFormatter {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone(ZoneId.of("GMT"));
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final long FIRST_FAST_DAY = DateUtil.daysFromCivil(1583, 1);
+    private static final long LAST_FAST_DAY = DateUtil.daysFromCivil(10000, 1) - 1;
+
+    private static final ConcurrentHashMap<String, ZoneState> zones = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    private DateFormatter(){}
+
+    /**
+     * Formats the instant in UTC.
+     *
+     * @param millis The epoch millis
+     * @return The formatted date string: yyyy-MM-dd'T'HH:mm:ssZ
+     */
+    public static String formatUTC(long millis){
+        return format(millis, UTC);
+    }
+
+    /**
+     * Formats the instant in the given time zone.
+     *
+     * @param millis The epoch millis
+     * @param timeZone The time zone to format in
+     * @return The formatted date string: yyyy-MM-dd'T'HH:mm:ssZ
+     */
+    public static String format(long millis, TimeZone timeZone){
+        Buffer buffer = fill(millis, timeZone);
+        if (buffer == null){
+            return formatWithCalendar(millis, timeZone);
+        }
+        return new String(buffer.chars, 0, buffer.length);
+    }
+
+    /**
+     * Writes the instant in UTC as a JSON string without creating a String.
+     *
+     * @param millis The epoch millis
+     * @param generator The generator to write to
+     * @throws IOException If the generator fails
+     */
+    public static void writeUTC(long millis, JsonGenerator generator) throws IOException {
+        write(millis, UTC, generator);
+    }
+
+    /**
+     * Writes the instant in the given time zone as a JSON string without creating a String.
+     *
+     * @param millis The epoch millis
+     * @param timeZone The time zone to format in
+     * @param generator The generator to write to
+     * @throws IOException If the generator fails
+     */
+    public static void write(long millis, TimeZone timeZone, JsonGenerator generator) throws IOException {
+        Buffer buffer = fill(millis, timeZone);
+        if (buffer == null){
+            generator.writeString(formatWithCalendar(millis, timeZone));
+        }else{
+            generator.writeString(buffer.chars, 0, buffer.length);
+        }
+    }
+
+    /**
+     * Formats the instant into the given array.
+     *
+     * @param millis The epoch millis
+     * @param timeZone The time zone to format in
+     * @param out The array to write to. It needs room for 24 characters after offset
+     * @param offset Where to start writing
+     * @return The number of characters written
+     */
+    public static int format(long millis, TimeZone timeZone, char[] out, int offset){
+        Buffer buffer = fill(millis, timeZone);
+        if (buffer == null){
+            String s = formatWithCalendar(millis, timeZone);
+            s.getChars(0, s.length(), out, offset);
+            return s.length();
+        }
+        System.arraycopy(buffer.chars, 0, out, offset, buffer.length);
+        return buffer.length;
+    }
+
+    /**
+     * Formats the instant into this thread's buffer.
+     *
+     * @return The buffer or null if the date has to be formatted by SimpleDateFormat
+     */
+    private static Buffer fill(long millis, TimeZone timeZone){
+        if (!DateUtil.defaultLocaleIsGregorian() || !DateUtil.defaultLocaleUsesAsciiDigits()){
+            return null;
+        }
+        int offset = offsetOf(timeZone, millis);
+        long local = millis + offset;
+        long day = Math.floorDiv(local, MILLIS_PER_DAY);
+        if (day < FIRST_FAST_DAY || day > LAST_FAST_DAY){
+            return null;
+        }
+
+        Buffer buffer = buffers.get();
+        long second = Math.floorDiv(millis, 1000L);
+        if (second == buffer.second && offset == buffer.offset){
+            return buffer;
+        }
+        char[] chars = buffer.chars;
+
+        if (day != buffer.day){
+            writeDate(chars, day);
+            buffer.day = day;
+        }
+
+        int secondOfDay = (int)(Math.floorMod(local, MILLIS_PER_DAY) / 1000L);
+        writeTwoDigits(chars, 11, secondOfDay / 3600);
+        writeTwoDigits(chars, 14, (secondOfDay / 60) % 60);
+        writeTwoDigits(chars, 17, secondOfDay % 60);
+
+        //Same truncation SimpleDateFormat uses for the RFC 822 zone
+        int offsetMinutes = offset / 60000;
+        if (offsetMinutes == 0){
+            chars[19] = 'Z';
+            buffer.length = 20;
+        }else{
+            chars[19] = offsetMinutes > 0 ? '+' : '-';
+            offsetMinutes = Math.abs(offsetMinutes);
+            writeTwoDigits(chars, 20, offsetMinutes / 60);
+            writeTwoDigits(chars, 22, offsetMinutes % 60);
+            buffer.length = 24;
+        }
+
+        buffer.second = second;
+        buffer.offset = offset;
+        return buffer;
+    }
+
+    /**
+     * Writes yyyy-MM-dd for the given day since the epoch.
+     */
+    private static void writeDate(char[] chars, long epochDay){
+        //Civil from days in the proleptic Gregorian calendar
+        long z = epochDay + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int)(dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int)(mp < 10 ? mp + 3 : mp - 9);
+        int year = (int)(yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        writeTwoDigits(chars, 0, year / 100);
+        writeTwoDigits(chars, 2, year % 100);
+        writeTwoDigits(chars, 5, month);
+        writeTwoDigits(chars, 8, day);
+    }
+
+    private static void writeTwoDigits(char[] chars, int index, int value){
+        chars[index] = (char)('0' + value / 10);
+        chars[index + 1] = (char)('0' + value % 10);
+    }
+
+    /**
+     * Gets the offset of the zone at the given instant. Zones that have never
+     * had a transition are answered from the per zone cache.
+     */
+    private static int offsetOf(TimeZone timeZone, long millis){
+        ZoneState state = zones.get(timeZone.getID());
+        if (state == null){
+            state = zones.computeIfAbsent(timeZone.getID(), (id) -> new ZoneState(timeZone));
+        }
+        if (state.fixed && timeZone.getRawOffset() == state.offset && !timeZone.useDaylightTime()){
+            return state.offset;
+        }
+        return timeZone.getOffset(millis);
+    }
+
+    /**
+     * The original SimpleDateFormat based formatter.
+     *
+     * @param millis The epoch millis
+     * @param timeZone The time zone to format in
+     * @return The formatted date string: yyyy-MM-dd'T'HH:mm:ssZ
+     */
+    static String formatWithCalendar(long millis, TimeZone timeZone){
+        SimpleDateFormat format = new SimpleDateFormat(DateUtil.simpleDateFormatString);
+        format.setTimeZone(timeZone);
+
+        String returnString = format.format(new Date(millis));
+        if (returnString.endsWith("+0000")){
+            returnString = returnString.replace("+0000", "Z");
+        }
+        return returnString;
+    }
+
+    /**
+     * What is known about a time zone id.
+     */
+    private static final class ZoneState {
+        private final boolean fixed;
+        private final int offset;
+
+        private ZoneState(TimeZone timeZone){
+            boolean isFixed;
+            try{
+                isFixed = timeZone.toZoneId().getRules().isFixedOffset();
+            }catch(RuntimeException e){
+                isFixed = false;
+            }
+            this.fixed = isFixed && !timeZone.useDaylightTime();
+            this.offset = timeZone.getRawOffset();
+        }
+    }
+
+    /**
+     * The per thread output buffer along with what was last written to it.
+     */
+    private static final class Buffer {
+        private final char[] chars = "0000-00-00T00:00:00+0000".toCharArray();
+        private int length = 0;
+        private long second = Long.MIN_VALUE;
+        private int offset = 0;
+        private long day = Long.MIN_VALUE;
+    }
+
+}
@@ -32,7 +32,7 @@ public class DateSerializer extends JsonSerializer<Date>{
     @Override
     public void serialize(Date t, JsonGenerator jg, SerializerProvider sp) throws IOException, JsonProcessingException {
 
-        jg.writeString(DateUtil.dateToUTCString(t));
+        DateFormatter.writeUTC(t.getTime(), jg);
 
     }
 
@@ -5,11 +5,12 @@
  */
 package org.kevinoff.samplecode;
 
+import java.text.DecimalFormatSymbols;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.time.ZoneId;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -33,6 +34,26 @@ public class DateUtil {
     
     public final static String simpleDateFormatString = "yyyy-MM-dd'T'HH:mm:ssZ";
     private final static Pattern dateFormatRegex = Pattern.compile("^(\\d{4})-?(\\d{2})-?(\\d{2})[T ]?(\\d{2}):?(\\d{2}):?(\\d{2})(\\.\\d{3})?(Z|[+-][\\d:]{1,5})?$");
+    
+    /**
+     * Returned by {@link #scanDate} when the characters are not a date
+     */
+    static final long NOT_A_DATE = Long.MIN_VALUE;
+    /**
+     * Returned by {@link #scanDate} when the characters match the date regex but the time zone can't be read
+     */
+    static final long BAD_OFFSET = Long.MIN_VALUE + 1;
+    /**
+     * Returned by {@link #scanDate} when the date has to go through the Calendar rules
+     */
+    static final long NEEDS_CALENDAR = Long.MIN_VALUE + 2;
+    /**
+     * Dates up to this year may fall before the switch from the Julian calendar
+     */
+    private static final int GREGORIAN_CUTOVER_YEAR = 1582;
+    
+    private static volatile LocaleCheck localeCheck = null;
+    
     /**
      * Parses a date, converts the time to UTC, and returns a formatted string.
      * 
@@ -40,9 +61,7 @@ public class DateUtil {
      * @return The formatted date string: yyyy-MM-dd'T'HH:mm:ssZ
      */
     public static String dateToUTCString(Date date){
-        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(ZoneId.of("GMT")));
-        calendar.setTime(date);
-        return calendarToString(calendar);
+        return DateFormatter.formatUTC(date.getTime());
     }
     
     /**
@@ -53,9 +72,7 @@ public class DateUtil {
      * @return The formatted date string: yyyy-MM-dd'T'HH:mm:ssZ
      */
     public static String dateToString(Date date, TimeZone timeZone){
-        Calendar calendar = Calendar.getInstance(timeZone);
-        calendar.setTime(date);
-        return calendarToString(calendar);
+        return DateFormatter.format(date.getTime(), timeZone);
     }
     
     /**
@@ -65,14 +82,7 @@ public class DateUtil {
      * @return The formatted date string: yyyy-MM-dd'T'HH:mm:ssZ
      */
     public static String calendarToString(Calendar calendar){
-        SimpleDateFormat format = new SimpleDateFormat(simpleDateFormatString);
-        format.setTimeZone(calendar.getTimeZone());
-        
-        String returnString = format.format(calendar.getTime());
-        if (returnString.endsWith("+0000")){
-            returnString = returnString.replace("+0000", "Z");
-        }
-        return returnString;
+        return DateFormatter.format(calendar.getTimeInMillis(), calendar.getTimeZone());
     }
     
     private static SimpleDateFormat makeFormat(TimeZone tz){
@@ -83,12 +93,47 @@ public class DateUtil {
     
     /**
      * Parses a string that represents a date and converts it to a Date object.
+     * <p>
+     * The string is checked with a single pass character scanner that accepts
+     * exactly what the date regex accepts. Most strings are rejected after the
+     * first couple of characters, and real dates are converted to epoch millis
+     * straight from the digits. Only dates that need the old calendar rules
+     * (before the Gregorian cutover or in a non Gregorian default locale) or
+     * have an unreadable time zone fall back to SimpleDateFormat.
      * 
      * @param date The date string
      * @return The converted Date object or null if it won't parse
      */
     public static Date parseString(String date){
         
+        int start = 0;
+        int end = date.length();
+        while (start < end && date.charAt(start) <= ' '){
+            start++;
+        }
+        while (end > start && date.charAt(end - 1) <= ' '){
+            end--;
+        }
+        
+        long millis = scanDate(date, start, end);
+        if (millis == NOT_A_DATE){
+            return null;
+        }else if (millis != NEEDS_CALENDAR && millis != BAD_OFFSET && defaultLocaleIsGregorian()){
+            return new Date(millis);
+        }else{
+            return parseWithCalendar(date);
+        }
+    }
+    
+    /**
+     * The original SimpleDateFormat based parser. It is only used for the rare
+     * dates that the scanner can't convert on its own.
+     * 
+     * @param date The date string
+     * @return The converted Date object or null if it won't parse
+     */
+    private static Date parseWithCalendar(String date){
+        
         Matcher matcher = dateFormatRegex.matcher(date.trim());
         
         String formattedString = formatStringForParse(matcher);
@@ -107,6 +152,231 @@ public class DateUtil {
         }
     }
     
+    /**
+     * Scans the characters between start and end and converts them to epoch
+     * millis if they match the date regex.
+     * <p>
+     * No Matcher, String or Calendar is created. The fields are read straight
+     * from the digits and the time zone is handled the same way
+     * {@link #formatTimeZoneStringForParse(String)} and SimpleDateFormat would
+     * handle it. Out of range fields roll over just like the lenient Calendar does.
+     * 
+     * @param s The characters to scan
+     * @param start The first character to look at
+     * @param end One past the last character to look at
+     * @return The epoch millis, {@link #NOT_A_DATE} if the characters don't match the regex,
+     * {@link #BAD_OFFSET} if the time zone can't be read or {@link #NEEDS_CALENDAR}
+     * if the date is before the Gregorian cutover
+     */
+    static long scanDate(CharSequence s, int start, int end){
+        //The shortest possible date is yyyyMMddHHmmss
+        if (end - start < 14){
+            return NOT_A_DATE;
+        }
+        int i = start;
+        
+        int year = digit(s, i++, end);
+        if (year < 0){
+            return NOT_A_DATE;
+        }
+        int d1 = digit(s, i++, end);
+        int d2 = digit(s, i++, end);
+        int d3 = digit(s, i++, end);
+        if (d1 < 0 || d2 < 0 || d3 < 0){
+            return NOT_A_DATE;
+        }
+        year = year * 1000 + d1 * 100 + d2 * 10 + d3;
+        
+        i = skipOptional(s, i, end, '-', '-');
+        int month = twoDigits(s, i, end);
+        i = skipOptional(s, i + 2, end, '-', '-');
+        int day = twoDigits(s, i, end);
+        i = skipOptional(s, i + 2, end, 'T', ' ');
+        int hour = twoDigits(s, i, end);
+        i = skipOptional(s, i + 2, end, ':', ':');
+        int minute = twoDigits(s, i, end);
+        i = skipOptional(s, i + 2, end, ':', ':');
+        int second = twoDigits(s, i, end);
+        i += 2;
+        if (month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0){
+            return NOT_A_DATE;
+        }
+        
+        //Optional milliseconds. They are matched but ignored just like the regex based parser
+        if (i < end && s.charAt(i) == '.'){
+            if (twoDigits(s, i + 1, end) < 0 || digit(s, i + 3, end) < 0){
+                return NOT_A_DATE;
+            }
+            i += 4;
+        }
+        
+        int offsetMinutes = 0;
+        if (i < end){
+            char c = s.charAt(i++);
+            if (c == 'Z'){
+                if (i != end){
+                    return NOT_A_DATE;
+                }
+            }else if (c == '+' || c == '-'){
+                int length = end - i;
+                if (length < 1 || length > 5){
+                    return NOT_A_DATE;
+                }
+                //Collect the digits and drop the ':' characters
+                int digitCount = 0;
+                int digits = 0;
+                int firstDigit = 0;
+                for (; i < end; i++){
+                    char z = s.charAt(i);
+                    if (z == ':'){
+                        continue;
+                    }
+                    int d = z - '0';
+                    if (d < 0 || d > 9){
+                        return NOT_A_DATE;
+                    }
+                    if (digitCount == 0){
+                        firstDigit = d;
+                    }
+                    if (digitCount < 4){
+                        digits = digits * 10 + d;
+                    }
+                    digitCount++;
+                }
+                int hours;
+                int minutes;
+                //(-0600 | -600 | -06 | -6)
+                if (digitCount == 3 && digits % 100 == 0){
+                    hours = digits / 100;
+                    minutes = 0;
+                }else if (digitCount == 2 && firstDigit == 0){
+                    hours = digits;
+                    minutes = 0;
+                }else if (digitCount == 1){
+                    hours = digits;
+                    minutes = 0;
+                }else if (digitCount >= 4){
+                    hours = digits / 100;
+                    minutes = digits % 100;
+                }else{
+                    return BAD_OFFSET;
+                }
+                if (hours > 23 || minutes > 59){
+                    return BAD_OFFSET;
+                }
+                offsetMinutes = (hours * 60 + minutes) * (c == '-' ? -1 : 1);
+            }else{
+                return NOT_A_DATE;
+            }
+        }
+        
+        //The Calendar picks Julian or Gregorian rules from the year before and after rolling the month
+        if (year <= GREGORIAN_CUTOVER_YEAR){
+            return NEEDS_CALENDAR;
+        }
+        //Roll the month over the same way a lenient Calendar does
+        int monthIndex = month - 1;
+        year += Math.floorDiv(monthIndex, 12);
+        monthIndex = Math.floorMod(monthIndex, 12);
+        if (year <= GREGORIAN_CUTOVER_YEAR){
+            return NEEDS_CALENDAR;
+        }
+        
+        long days = daysFromCivil(year, monthIndex + 1) + day - 1;
+        return days * 86400000L + hour * 3600000L + minute * 60000L + second * 1000L - offsetMinutes * 60000L;
+    }
+    
+    /**
+     * Counts the days from 1970-01-01 to the first day of the given month
+     * in the proleptic Gregorian calendar.
+     * 
+     * @param year The year
+     * @param month The month from 1 to 12
+     * @return The number of days since the epoch
+     */
+    static long daysFromCivil(long year, int month){
+        if (month <= 2){
+            year--;
+        }
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+    
+    private static int digit(CharSequence s, int i, int end){
+        if (i >= end){
+            return -1;
+        }
+        int d = s.charAt(i) - '0';
+        return (d < 0 || d > 9) ? -1 : d;
+    }
+    
+    private static int twoDigits(CharSequence s, int i, int end){
+        int tens = digit(s, i, end);
+        int ones = digit(s, i + 1, end);
+        return (tens < 0 || ones < 0) ? -1 : tens * 10 + ones;
+    }
+    
+    private static int skipOptional(CharSequence s, int i, int end, char a, char b){
+        if (i < end){
+            char c = s.charAt(i);
+            if (c == a || c == b){
+                return i + 1;
+            }
+        }
+        return i;
+    }
+    
+    /**
+     * Checks if SimpleDateFormat would use a Gregorian calendar for the
+     * current default locale. The answer is cached until the default changes.
+     * 
+     * @return true if the arithmetic date conversion gives the same result as SimpleDateFormat
+     */
+    static boolean defaultLocaleIsGregorian(){
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        LocaleCheck check = localeCheck;
+        if (check == null || check.locale != locale){
+            check = new LocaleCheck(locale);
+            localeCheck = check;
+        }
+        return check.gregorian;
+    }
+    
+    /**
+     * Checks if SimpleDateFormat would write ASCII digits for the current
+     * default locale. The answer is cached until the default changes.
+     * 
+     * @return true if the date can be written without a DecimalFormat
+     */
+    static boolean defaultLocaleUsesAsciiDigits(){
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        LocaleCheck check = localeCheck;
+        if (check == null || check.locale != locale){
+            check = new LocaleCheck(locale);
+            localeCheck = check;
+        }
+        return check.asciiDigits;
+    }
+    
+    /**
+     * The result of checking the default locale, kept together so it can be
+     * swapped atomically.
+     */
+    private static final class LocaleCheck {
+        private final Locale locale;
+        private final boolean gregorian;
+        private final boolean asciiDigits;
+        
+        private LocaleCheck(Locale locale){
+            this.locale = locale;
+            this.gregorian = "gregory".equals(Calendar.getInstance(locale).getCalendarType());
+            this.asciiDigits = DecimalFormatSymbols.getInstance(locale).getZeroDigit() == '0';
+        }
+    }
+    
     /**
      * Formats a string by parsing its parts and re-assembling it in a way
      * that the date parser can convert it to a Date Object.
@@ -161,6 +431,28 @@ public class DateUtil {
         return timeZoneString;
     }
     
+    /**
+     * A cheap check used by the lazy date mode to decide if a string should be
+     * kept for parsing later. It only looks at the length and the first four
+     * characters so it may say yes to strings that are not dates, but it never
+     * says no to a string that {@link #parseString(String)} would convert.
+     * 
+     * @param dateString The string to check
+     * @return true if the string could be a date
+     */
+    public static boolean mightBeDate(String dateString){
+        int start = 0;
+        int end = dateString.length();
+        while (start < end && dateString.charAt(start) <= ' '){
+            start++;
+        }
+        while (end > start && dateString.charAt(end - 1) <= ' '){
+            end--;
+        }
+        return end - start >= 14 && digit(dateString, start, end) >= 0 && digit(dateString, start + 1, end) >= 0
+                && digit(dateString, start + 2, end) >= 0 && digit(dateString, start + 3, end) >= 0;
+    }
+    
     /**
      * Checks if the string actually represents a date and that there is no
      * other data in the string. 
@@ -171,7 +463,7 @@ public class DateUtil {
      * @return true if it can be parsed
      */
     public static Boolean isFormattedDate(String dateString){
-        return dateFormatRegex.matcher(dateString).matches();
+        return scanDate(dateString, 0, dateString.length()) != NOT_A_DATE;
     }
     
     /**
@@ -0,0 +1,108 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * A string that looks like it could be a date and has not been parsed yet.
+ * <p>
+ * DotNotationMaps and DotNotationLists in lazy date mode store these instead of
+ * calling {@link DateUtil#parseString(String)} when the value is set. The string
+ * is parsed the first time getProperty returns it and the map or list replaces
+ * the placeholder with the result.
+ * <p>
+ * When serialized it writes the Date exactly the way the ObjectMapper would
+ * write a Date, or the original string if it was not a date after all. It
+ * equals and hashes as the value it resolves to.
+ *
+ * @author kevin.off
+ */
+public final class DeferredDate implements JsonSerializable {
+
+    private final String raw;
+    private Object resolved = null;
+
+    /**
+     * Creates an instance
+     *
+     * @param raw The string that may be a date
+     */
+    public DeferredDate(String raw){
+        this.raw = raw;
+    }
+
+    /**
+     * Parses the string if that hasn't been done yet.
+     *
+     * @return The Date or the original string if it is not a date
+     */
+    public Object resolve(){
+        Object value = resolved;
+        if (value == null){
+            Date date = DateUtil.parseString(raw);
+            value = (date != null) ? date : raw;
+            resolved = value;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the string the way it was set
+     *
+     * @return The original string
+     */
+    public String getRaw(){
+        return raw;
+    }
+
+    @Override
+    public void serialize(JsonGenerator jg, SerializerProvider sp) throws IOException {
+        Object value = resolve();
+        if (value instanceof Date){
+            sp.defaultSerializeValue(value, jg);
+        }else{
+            jg.writeString(raw);
+        }
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator jg, SerializerProvider sp, TypeSerializer ts) throws IOException {
+        serialize(jg, sp);
+    }
+
+    /**
+     * Compares the value the string resolves to, so a map or list holding the
+     * placeholder equals one holding the parsed value
+     *
+     * @param o The other value
+     * @return true if the resolved values are equal
+     */
+    @Override
+    public boolean equals(Object o){
+        if (o == this){
+            return true;
+        }
+        Object other = (o instanceof DeferredDate) ? ((DeferredDate)o).resolve() : o;
+        return resolve().equals(other);
+    }
+
+    @Override
+    public int hashCode(){
+        return resolve().hashCode();
+    }
+
+    @Override
+    public String toString(){
+        return raw;
+    }
+
+}
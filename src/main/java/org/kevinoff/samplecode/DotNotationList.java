@@ -5,38 +5,86 @@
  */
 package org.kevinoff.samplecode;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * This class can be used as a regular Linked List but may also be used
+ * This class can be used as a regular List but may also be used
  * to access sub lists by using Dot Notation.
  * <p>
+ * It is backed by an array so get, set and every index step of a dot notation
+ * path are constant time, even for lists with a lot of elements.
+ * <p>
  * For example: int val = myList.getProperty("1.2.3")
+ * <p>
+ * Like {@link DotNotationMap} it can defer date parsing until a value is read.
  * 
  * @author kevin.off
  */
-public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
+public class DotNotationList<T> extends ArrayList<T> implements JsonProducer{
+    
+    private boolean lazyDates = false;
+    private DotNotationMap.Storage mapStorage = DotNotationMap.Storage.LINKED;
     
     /**
      * Creates a new instance
      */
     public DotNotationList(){}
     
+    /**
+     * Creates a new instance that may defer date parsing
+     * 
+     * @param lazyDates true to parse date strings on first read instead of when they are set
+     */
+    public DotNotationList(boolean lazyDates){
+        this.lazyDates = lazyDates;
+    }
+    
     /**
      * Creates a new instance by copying the contents of the given list
      * @param l The list to copy
      */
     public DotNotationList(List<T> l){
+        this(l, false);
+    }
+    
+    /**
+     * Creates a new instance by copying the contents of the given list
+     * @param l The list to copy
+     * @param lazyDates true to parse date strings on first read instead of when they are set
+     */
+    public DotNotationList(List<T> l, boolean lazyDates){
+        this(l, lazyDates, DotNotationMap.Storage.LINKED);
+    }
+    
+    /**
+     * Creates a new instance by copying the contents of the given list
+     * @param l The list to copy
+     * @param lazyDates true to parse date strings on first read instead of when they are set
+     * @param mapStorage The kind of map to put nested objects in
+     */
+    DotNotationList(List<T> l, boolean lazyDates, DotNotationMap.Storage mapStorage){
+        this.lazyDates = lazyDates;
+        this.mapStorage = mapStorage;
         if (l != null){
-            for(int i = 0; i < l.size(); i++){
-                this.setValueInternal(i, l.get(i));
+            this.ensureCapacity(l.size());
+            int i = 0;
+            for(T value : l){
+                this.setValueInternal(i++, value);
             }
         }
     }
@@ -53,33 +101,80 @@ public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
      */
     public <T> T getProperty(String propertyPath){
         //Example: myList.getProperty("1.thing.2.thing2");
-        
-        String[] path = propertyPath.split("\\.");
-        String token = path[0];
+        return this.getProperty(DotPath.of(propertyPath));
+    }
+    
+    /**
+     * Gets the value from this and sub lists by using a compiled dot notation path.
+     * 
+     * @param <T> The return type to cast the value to
+     * @param path The compiled path
+     * @return The data at that location or null
+     */
+    public <T> T getProperty(DotPath path){
+        return (T)this.getProperty(path, 0, path.size());
+    }
+    
+    /**
+     * Walks the segments of the path from the given position.
+     * 
+     * @param path The compiled path
+     * @param from The segment to start with
+     * @param to One past the last segment to use
+     * @return The data at that location or null
+     */
+    Object getProperty(DotPath path, int from, int to){
+        int index = path.index(from);
         
         //if it is a number
-        if (token.matches("^\\d+$")){
+        if (index >= 0){
             //if the entire path is only 1 token then return the value
-            Object val = super.get(Integer.parseInt(token));
-            if (path.length == 1){
-                return (T)val;
+            if (from == to - 1){
+                return this.getValueInternal(index);
             }
-            String nextPath = propertyPath.replaceFirst(token + "\\.", "");
+            Object val = rawGet(index);
             if (val instanceof DotNotationList){
-                return (T)((DotNotationList)val).getProperty(nextPath);
+                return ((DotNotationList)val).getProperty(path, from + 1, to);
             }else if (val instanceof DotNotationMap){
-                return ((DotNotationMap)val).getProperty(nextPath);
+                return ((DotNotationMap)val).getProperty(path, from + 1, to);
             }else{
                 return null;
             }
         }else{
-            if (super.size() == 1 && super.get(0) instanceof DotNotationMap){
-                return ((DotNotationMap)super.get(0)).getProperty(propertyPath);
+            if (size() == 1 && rawGet(0) instanceof DotNotationMap){
+                return ((DotNotationMap)rawGet(0)).getProperty(path, from, to);
             }
-            Logger.getLogger(this.getClass().getName()).log(Level.SEVERE, "You cannot traverse a list with a the token {0} because it is not an integer", token);
+            Logger.getLogger(this.getClass().getName()).log(Level.SEVERE, "You cannot traverse a list with a the token {0} because it is not an integer", path.segment(from));
             return null;
         }
     }
+    
+    /**
+     * Gets the value at a single index, parsing it first if it is a deferred date.
+     * 
+     * @param index The index
+     * @return The value
+     */
+    private Object getValueInternal(int index){
+        Object val = rawGet(index);
+        if (val instanceof DeferredDate){
+            val = ((DeferredDate)val).resolve();
+            super.set(index, (T)val);
+        }
+        return val;
+    }
+    
+    /**
+     * Gets a value straight from the storage, without dot notation or date
+     * resolving. Every read of the storage goes through here so a subclass can
+     * store the elements its own way.
+     * 
+     * @param index The index
+     * @return The value
+     */
+    Object rawGet(int index){
+        return super.get(index);
+    }
    
     /**
      * Sets the value in this list at the given path
@@ -88,42 +183,60 @@ public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
      * @param propertyValue The value to put there
      */
     public void setProperty(String propertyPath, T propertyValue){
+        this.setProperty(DotPath.of(propertyPath), 0, propertyValue);
+    }
+    
+    /**
+     * Sets the value in this list at the given compiled path
+     * 
+     * @param path The compiled path
+     * @param propertyValue The value to put there
+     */
+    public void setProperty(DotPath path, T propertyValue){
+        this.setProperty(path, 0, propertyValue);
+    }
+    
+    /**
+     * Sets a value using the segments of the path from the given position.
+     * 
+     * @param path The compiled path
+     * @param from The segment to start with
+     * @param propertyValue The value to put there
+     */
+    void setProperty(DotPath path, int from, Object propertyValue){
         
-        String[] path = propertyPath.split("\\.");
-        String token = path[0];
+        int index = path.index(from);
         
-        if (token.matches("^\\d+$")){
-            int index = Integer.valueOf(token);
-            if (path.length == 1){
-                setValueInternal(index, propertyValue);
+        if (index >= 0){
+            if (from == path.size() - 1){
+                setValueInternal(index, (T)propertyValue);
             }else{
-                String nextToken = path[1];
-                if (index > this.size() - 1 || super.get(index) == null){
-                    if (nextToken.matches("^\\d+$")){
-                        DotNotationList list = new DotNotationList();
-                        list.setProperty(propertyPath.replaceFirst(token + "\\.", ""), propertyValue);
+                if (index > this.size() - 1 || rawGet(index) == null){
+                    if (path.index(from + 1) >= 0){
+                        DotNotationList list = newList();
+                        list.setProperty(path, from + 1, propertyValue);
                         this.setValueInternal(index, (T)list);
                     }else{
-                        DotNotationMap map = new DotNotationMap();
-                        map.setProperty(propertyPath.replaceFirst(token + "\\.", ""), propertyValue);
+                        DotNotationMap map = newMap();
+                        map.setProperty(path, from + 1, propertyValue);
                         this.setValueInternal(index, (T)map);
                     }
                 }else{
-                    Object val = super.get(index);
+                    Object val = rawGet(index);
                     if (val instanceof DotNotationMap){
-                        ((DotNotationMap)val).setProperty(propertyPath.replaceFirst(token + "\\.", ""), propertyValue);
+                        ((DotNotationMap)val).setProperty(path, from + 1, propertyValue);
                         this.setValueInternal(index, (T)val);
                     }else if(val instanceof DotNotationList){
-                        ((DotNotationList)val).setProperty(propertyPath.replaceFirst(token + "\\.", ""), propertyValue);
+                        ((DotNotationList)val).setProperty(path, from + 1, propertyValue);
                         this.setValueInternal(index, (T)val);
                     }else{
-                        throw new RuntimeException("Cannot set sub properties after " + token + " if current value is not a DotNotationMap or a DotNotationList. Your value is a " + val.getClass().getName());
+                        throw new RuntimeException("Cannot set sub properties after " + path.segment(from) + " if current value is not a DotNotationMap or a DotNotationList. Your value is a " + val.getClass().getName());
                     }
                 }
             }
             
         }else{
-            throw new RuntimeException("The first token of the key must be a string representation of an integer. " + token + " will not work as an index for a list");
+            throw new RuntimeException("The first token of the key must be a string representation of an integer. " + path.segment(from) + " will not work as an index for a list");
         }
         
     }
@@ -145,7 +258,26 @@ public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
      * @param key The index to put the value
      * @param value The valut to put there
      */
-    private void setValueInternal(int key, T value){
+    void setValueInternal(int key, T value){
+        Object valueToAdd = toStored(value);
+        if (this.isEmpty() || key == this.size()){
+            super.add((T)valueToAdd);
+        }else if(key < this.size()){
+            super.set(key, (T)valueToAdd);
+        }else{
+            throw new IndexOutOfBoundsException("This DotNotationList only has " + this.size() + " elements. You cannot add a value at the " + key + " index.");
+        }
+    }
+    
+    /**
+     * Gets the form a value is kept in. Maps and lists become DotNotationMaps
+     * and DotNotationLists, a Mongo "$date" wrapper becomes its contents and
+     * date strings are converted.
+     * 
+     * @param value The value being added
+     * @return The value to store
+     */
+    private Object toStored(Object value){
         Object valueToAdd;
         if (value instanceof Map){
             if (((Map)value).keySet().size() == 1 && ((Map)value).containsKey("$date")){
@@ -154,65 +286,95 @@ public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
                 if (value instanceof DotNotationMap){
                     valueToAdd = value;
                 }else{
-                    valueToAdd = new DotNotationMap((Map)value);
+                    DotNotationMap map = newMap();
+                    map.putAll((Map)value);
+                    valueToAdd = map;
                 }
             }
         }else if (value instanceof List){
             if (value instanceof DotNotationList){
                 valueToAdd = value;
             }else{
-                valueToAdd = new DotNotationList((List)value);
+                valueToAdd = new DotNotationList((List)value, lazyDates, mapStorage);
             }
         }else{
             valueToAdd = convertValue(value);
         }
-        if (this.isEmpty() || key == this.size()){
-            super.add((T)valueToAdd);
-        }else if(key < this.size()){
-            super.set(key, (T)valueToAdd);
-        }else{
-            throw new IndexOutOfBoundsException("This DotNotationList only has " + this.size() + " elements. You cannot add a value at the " + key + " index.");
-        }
+        return valueToAdd;
+    }
+ 
+    /**
+     * Adds a value to the end of the list exactly as it is. This is what
+     * setValueInternal does with the contents of a Mongo "$date" wrapper.
+     * 
+     * @param value The value to add
+     */
+    void addUnconverted(Object value){
+        super.add((T)value);
     }
  
     public boolean containsKey(Object k){
-        String key = (String)k;
+        return this.containsKey(DotPath.of((String)k), 0);
+    }
+    
+    /**
+     * Checks if a value exists at the given compiled path
+     * 
+     * @param path The compiled path
+     * @return true if the value exists
+     */
+    public boolean containsKey(DotPath path){
+        return this.containsKey(path, 0);
+    }
+    
+    /**
+     * Checks the segments of the path from the given position.
+     * 
+     * @param path The compiled path
+     * @param from The segment to start with
+     * @return true if the value exists
+     */
+    boolean containsKey(DotPath path, int from){
+        int index = path.index(from);
         
-        if (key.contains(".")){
-            String[] path = key.split("\\.");
-            String token = path[0];
-            if (token.matches("^\\d+$")){
-                int index = Integer.valueOf(token);
-                if (index < this.size()){
-                    Object val = super.get(index);
-                    if (val instanceof DotNotationMap){
-                        return ((DotNotationMap)val).containsKey(key.replaceFirst(token + "\\.", ""));
-                    }else if (val instanceof DotNotationList){
-                        return ((DotNotationList)val).containsKey(key.replaceFirst(token + "\\.", ""));
-                    }else{
-                        return false;
-                    }
+        if (from == path.size() - 1){
+            if (index < 0){
+                index = Integer.valueOf(path.segment(from));
+            }
+            return index < this.size();
+        }
+        if (index >= 0){
+            if (index < this.size()){
+                Object val = rawGet(index);
+                if (val instanceof DotNotationMap){
+                    return ((DotNotationMap)val).containsKey(path, from + 1);
+                }else if (val instanceof DotNotationList){
+                    return ((DotNotationList)val).containsKey(path, from + 1);
                 }else{
                     return false;
                 }
             }else{
-                throw new IllegalArgumentException("You cannot access a list with the tocken " + token + ". It must be an integer");
+                return false;
             }
         }else{
-            int index = Integer.valueOf(key);
-            return index < this.size();
+            throw new IllegalArgumentException("You cannot access a list with the tocken " + path.segment(from) + ". It must be an integer");
         }
     }
     
     /**
      * Check to see if the value is a string and that it can be parsed by the
      * {@link DateUtil}, it it is then it parses the string into a Date object.
+     * <p>
+     * In lazy date mode a string that might be a date is wrapped in a
+     * {@link DeferredDate} instead of being parsed.
      * 
      * @param value The object to convert
      * @return The converted value
      */
     public Object convertValue(Object value){
-        if (value instanceof String){
+        if (value instanceof String && lazyDates){
+            return DateUtil.mightBeDate((String)value) ? new DeferredDate((String)value) : value;
+        }else if (value instanceof String){
             Date date = DateUtil.parseString((String)value);
             if (date != null){
                 return date;
@@ -225,7 +387,7 @@ public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
 
     @Override
     public final boolean add(T e) {
-        this.setProperty(String.valueOf(this.size()), e);
+        this.setValueInternal(this.size(), e);
         return true;
     }
 
@@ -233,7 +395,7 @@ public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
     public final boolean addAll(Collection c) {
         int i = this.size();
         for(Object o : c){
-            this.setProperty(String.valueOf(i), (T)o);
+            this.setValueInternal(i, (T)o);
             i++;
         }
         return true;
@@ -243,7 +405,7 @@ public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
     public final boolean addAll(int index, Collection c) {
         int i = index;
         for(Object o : c){
-            this.setProperty(String.valueOf(i), (T)o);
+            this.set(i, (T)o);
             i++;
         }
         return true;
@@ -251,34 +413,266 @@ public class DotNotationList<T> extends LinkedList<T> implements JsonProducer{
 
     @Override
     public final T get(int index) {
-        return this.getProperty(String.valueOf(index));
+        if (index < 0){
+            return this.getProperty(String.valueOf(index));
+        }
+        return (T)this.getValueInternal(index);
     }
     
     @Override
     public final T set(int index, T element) {
         T orig = null;
         if (index < this.size()){
-            orig = super.get(index);
+            orig = (T)rawGet(index);
+        }
+        if (index < 0){
+            this.setProperty(String.valueOf(index), element);
+        }else{
+            this.setValueInternal(index, element);
         }
-        this.setProperty(String.valueOf(index), element);
         return orig;
     }
 
     @Override
     public final void add(int index, T element) {
-        this.setProperty(String.valueOf(index), element);
+        this.set(index, element);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public ListIterator<T> listIterator() {
+        return listIterator(0);
+    }
+
+    /**
+     * Gets a list iterator. In lazy date mode it returns the parsed values,
+     * like get does, so comparing this list with another one from either side
+     * compares the dates and not the placeholders. Adding through the iterator
+     * inserts the value, converted the way add converts it.
+     * 
+     * @param index Where to start
+     * @return The iterator
+     */
+    @Override
+    public ListIterator<T> listIterator(int index) {
+        if (index < 0 || index > size()){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return new DotNotationListIterator(index);
+    }
+
+    /**
+     * Steps through the list like the ArrayList iterator does. The ArrayList
+     * one adds through add(int, T), which sets the element in this list.
+     */
+    private final class DotNotationListIterator implements ListIterator<T> {
+        private int cursor;
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+
+        private DotNotationListIterator(int index){
+            this.cursor = index;
+        }
+
+        @Override
+        public boolean hasNext(){
+            return cursor < size();
+        }
+
+        @Override
+        public T next(){
+            checkForComodification();
+            if (cursor >= size()){
+                throw new NoSuchElementException();
+            }
+            lastReturned = cursor++;
+            return element(lastReturned);
+        }
+
+        @Override
+        public boolean hasPrevious(){
+            return cursor > 0;
+        }
+
+        @Override
+        public T previous(){
+            checkForComodification();
+            if (cursor <= 0){
+                throw new NoSuchElementException();
+            }
+            lastReturned = --cursor;
+            return element(lastReturned);
+        }
+
+        @Override
+        public int nextIndex(){
+            return cursor;
+        }
+
+        @Override
+        public int previousIndex(){
+            return cursor - 1;
+        }
+
+        @Override
+        public void remove(){
+            if (lastReturned < 0){
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            DotNotationList.super.remove(lastReturned);
+            cursor = lastReturned;
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+
+        @Override
+        public void set(T e){
+            if (lastReturned < 0){
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            DotNotationList.this.set(lastReturned, e);
+        }
+
+        @Override
+        public void add(T e){
+            checkForComodification();
+            DotNotationList.super.add(cursor++, (T)toStored(e));
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+
+        private T element(int index){
+            return lazyDates ? get(index) : (T)rawGet(index);
+        }
+
+        private void checkForComodification(){
+            if (modCount != expectedModCount){
+                throw new ConcurrentModificationException();
+            }
+        }
     }
     
     public String toJson() throws JsonProcessingException{
         NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
-        String json = mapper.writeValueAsString(this);
+        String json = mapper.cachedWriterFor(getClass()).writeValueAsString(this);
         return json;
     }
     
+    /**
+     * Writes this DotNotationList as the next value of the generator using the date aware serializers
+     * 
+     * @param generator The generator to write to
+     * @throws IOException If the JSON can't be written
+     */
+    @Override
+    public void writeJson(JsonGenerator generator) throws IOException {
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
+        mapper.writeValue(generator, this);
+    }
+    
+    /**
+     * Writes this DotNotationList to the stream as UTF-8 JSON without building a String
+     * 
+     * @param out The stream to write to. It is not closed
+     * @throws IOException If the JSON can't be written
+     */
+    @Override
+    public void writeJson(OutputStream out) throws IOException {
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
+        mapper.writeValueWithoutClosing(out, this);
+    }
+    
+    /**
+     * Writes this DotNotationList to the writer as JSON without building a String
+     * 
+     * @param writer The writer to write to. It is not closed
+     * @throws IOException If the JSON can't be written
+     */
+    @Override
+    public void writeJson(Writer writer) throws IOException {
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
+        mapper.writeValueWithoutClosing(writer, this);
+    }
+    
     public static DotNotationList fromJson(String json) throws JsonProcessingException{
         NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsObjectMapper();
         DotNotationList identity = mapper.readValue(json, DotNotationList.class);
         return identity;
     }
     
+    /**
+     * Creates a list from JSON and optionally defers date parsing until values are read.
+     * 
+     * @param json The JSON array
+     * @param lazyDates true to parse date strings on first read
+     * @return The new list
+     * @throws JsonProcessingException On a parse exception
+     */
+    public static DotNotationList fromJson(String json, boolean lazyDates) throws JsonProcessingException{
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsObjectMapper();
+        DotNotationList identity = mapper.cachedReaderFor(DotNotationList.class).withValueToUpdate(new DotNotationList(lazyDates)).readValue(json);
+        return identity;
+    }
+    
+    /**
+     * Checks if this list defers date parsing until a value is read
+     * 
+     * @return true if the list is in lazy date mode
+     */
+    public boolean isLazyDates(){
+        return lazyDates;
+    }
+    
+    /**
+     * Makes a deeply immutable snapshot of this list that any number of
+     * threads can read without locking. See {@link FrozenDotNotationList}.
+     * 
+     * @return The frozen list
+     */
+    public FrozenDotNotationList<T> freeze(){
+        return new FrozenDotNotationList<>(this);
+    }
+    
+    /**
+     * Checks if this list is a frozen snapshot that can't be changed
+     * 
+     * @return true if the list is frozen
+     */
+    public boolean isFrozen(){
+        return false;
+    }
+    
+    /**
+     * Gets the kind of map the objects nested in this list are put in
+     * 
+     * @return The storage of the nested maps
+     */
+    DotNotationMap.Storage getMapStorage(){
+        return mapStorage;
+    }
+    
+    /**
+     * Creates an empty map of the kind this list puts its nested objects in
+     * 
+     * @return The new map
+     */
+    DotNotationMap newMap(){
+        return mapStorage.newMap(lazyDates);
+    }
+    
+    /**
+     * Creates an empty list of the kind this list puts its nested arrays in
+     * 
+     * @return The new list
+     */
+    DotNotationList newList(){
+        return new DotNotationList(null, lazyDates, mapStorage);
+    }
+    
 }
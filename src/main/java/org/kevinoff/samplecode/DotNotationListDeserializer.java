@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import java.io.IOException;
+
+/**
+ * A custom Deserializer used in Jackson2Json to build a DotNotationList in a
+ * single pass over the tokens using {@link DotNotationTreeReader}.
+ * 
+ * @author kevin.off
+ */
+public class DotNotationListDeserializer extends StdDeserializer<DotNotationList>{
+
+    public DotNotationListDeserializer(){
+        super(DotNotationList.class);
+    }
+
+    /**
+     * Builds a new DotNotationList from the current JSON value
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @return The new DotNotationList
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public DotNotationList deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return DotNotationTreeReader.readList(p, ctxt, new DotNotationList());
+    }
+
+    /**
+     * Adds the current JSON value to an existing DotNotationList
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @param intoValue the DotNotationList to fill
+     * @return The filled DotNotationList
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public DotNotationList deserialize(JsonParser p, DeserializationContext ctxt, DotNotationList intoValue) throws IOException {
+        return DotNotationTreeReader.readList(p, ctxt, intoValue);
+    }
+
+}
@@ -5,8 +5,11 @@
  */
 package org.kevinoff.samplecode;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -20,15 +23,31 @@ import java.util.Map;
  * then you can just call dotNotationMap.getProperty("Doc.Property.SubProperty") and the 
  * method will recursively descend and retrieve the property. The DotNotationMap.setProperty() 
  * method will also create properties at any depth using dot notation.
+ * <p>
+ * In lazy date mode strings that might be dates are stored as {@link DeferredDate}
+ * placeholders and are only parsed the first time getProperty returns them.
+ * Maps and lists created inside a lazy map are lazy as well. Iterating the raw
+ * entries or values of a lazy map may return the placeholders.
  * @author kevin.off
  */
 public class DotNotationMap extends LinkedHashMap<String, Object> implements JsonProducer {
+    
+    private boolean lazyDates = false;
      
     /**
      * Creates an instance
      */
     public DotNotationMap(){}
     
+    /**
+     * Creates an instance that may defer date parsing
+     * 
+     * @param lazyDates true to parse date strings on first read instead of when they are set
+     */
+    public DotNotationMap(boolean lazyDates){
+        this.lazyDates = lazyDates;
+    }
+    
     /**
      * Creates an instance by copying the values from the given map
      * 
@@ -44,7 +63,145 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
      * @param map The map to copy
      */
     public DotNotationMap(DotNotationMap map){
-        super.putAll(map);
+        this.lazyDates = map.lazyDates;
+        for (Map.Entry<String, Object> entry : map.entrySet()){
+            this.rawPut(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    /**
+     * Checks if this map defers date parsing until a value is read
+     * 
+     * @return true if the map is in lazy date mode
+     */
+    public boolean isLazyDates(){
+        return lazyDates;
+    }
+    
+    /**
+     * Makes a deeply immutable snapshot of this map that any number of threads
+     * can read without locking. See {@link FrozenDotNotationMap}.
+     * 
+     * @return The frozen map
+     */
+    public FrozenDotNotationMap freeze(){
+        return new FrozenDotNotationMap(this, true);
+    }
+    
+    /**
+     * Checks if this map is a frozen snapshot that can't be changed
+     * 
+     * @return true if the map is frozen
+     */
+    public boolean isFrozen(){
+        return false;
+    }
+    
+    /**
+     * The ways a DotNotationMap can store its entries. The maps and lists
+     * created inside a map store theirs the same way.
+     */
+    enum Storage {
+        /** The entries of the LinkedHashMap */
+        LINKED,
+        /** A shared key shape and a flat value array, see {@link CompactDotNotationMap} */
+        COMPACT,
+        /** A compact map that keeps numbers unboxed, see {@link PrimitiveDotNotationMap} */
+        PRIMITIVE;
+        
+        /**
+         * Creates an empty map that stores its entries this way
+         * 
+         * @param lazyDates The date mode of the map
+         * @return The new map
+         */
+        DotNotationMap newMap(boolean lazyDates){
+            switch (this){
+                case COMPACT:
+                    return new CompactDotNotationMap(lazyDates);
+                case PRIMITIVE:
+                    return new PrimitiveDotNotationMap(lazyDates);
+                default:
+                    return new DotNotationMap(lazyDates);
+            }
+        }
+    }
+    
+    /**
+     * Gets how this map stores its entries
+     * 
+     * @return The storage
+     */
+    Storage storage(){
+        return Storage.LINKED;
+    }
+    
+    /**
+     * Creates an empty map of the kind this map puts its nested objects in
+     * 
+     * @return The new map
+     */
+    DotNotationMap newMap(){
+        return storage().newMap(lazyDates);
+    }
+    
+    /**
+     * Creates an empty list of the kind this map puts its nested arrays in
+     * 
+     * @return The new list
+     */
+    DotNotationList newList(){
+        return new DotNotationList(null, lazyDates, storage());
+    }
+    
+    /**
+     * Lets a map that stores its entries its own way release the room it grew
+     * into. The readers call it once a map has been filled.
+     */
+    void trimToSize(){
+    }
+    
+    /**
+     * Gets a value straight from the storage, without dot notation or date resolving.
+     * Every read of the storage goes through here so a subclass can store the
+     * entries its own way.
+     * 
+     * @param key The key
+     * @return The value or null
+     */
+    Object rawGet(String key){
+        return super.get(key);
+    }
+    
+    /**
+     * Puts a value straight into the storage without converting it
+     * 
+     * @param key The key
+     * @param value The value
+     * @return The previous value or null
+     */
+    Object rawPut(String key, Object value){
+        return super.put(key, value);
+    }
+    
+    /**
+     * Checks the storage for a key without dot notation
+     * 
+     * @param key The key
+     * @return true if the key is there
+     */
+    boolean rawContainsKey(String key){
+        return super.containsKey(key);
+    }
+    
+    /**
+     * Removes a key from the storage without dot notation
+     * 
+     * @param key The key
+     * @return The removed value or null
+     */
+    Object rawRemove(String key){
+        return super.remove(key);
     }
     
     /**
@@ -55,31 +212,211 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
      * @return The value or null
      */
     public <T> T getProperty(String propertyPath){
-        String[] path = propertyPath.split("\\.");
-        
-        String token = path[0];
-        //If the base token exists
-        if (this.containsKey(token)){
-            //Get the value of the base token
-            Object val = super.get(token);
-            //if the entire path is only 1 token then return the value
-            if (path.length == 1){
-                return (T)val;            
-            }else if (val instanceof DotNotationMap){
-                //if the value is an instance of a DotNotationMap then get the property from it
-                return ((DotNotationMap)val).getProperty(propertyPath.replaceFirst(token + "\\.", "")); 
-            }else if(val instanceof DotNotationList){
-                //If the value is a list then we can create a new Dot Notation List with the remaining path
-                return (T)((DotNotationList)val).getProperty(propertyPath.replaceFirst(token + "\\.", ""));
-            }else{
-                //if the value was not a list or a map and there are more tokens to parse then this is the end of the road
-                return null;
-            }
+        if (propertyPath.indexOf('.') < 0){
+            return (T)this.getValueInternal(propertyPath);
+        }
+        return this.getProperty(DotPath.of(propertyPath));
+    }
+    
+    /**
+     * Gets a property from the map by a compiled dot notation path.
+     * 
+     * @param <T> the assumed return type
+     * @param path The compiled path
+     * @return The value or null
+     */
+    public <T> T getProperty(DotPath path){
+        return (T)this.getProperty(path, 0, path.size());
+    }
+    
+    /**
+     * Gets a number from the map by a given dot notation string as a long. A
+     * {@link PrimitiveDotNotationMap} reads it without boxing it.
+     * 
+     * @param propertyPath The dot notation string
+     * @return The value
+     * @throws IllegalStateException If the value is not a number
+     */
+    public long getLong(String propertyPath){
+        if (propertyPath.indexOf('.') < 0){
+            return this.longValue(propertyPath, propertyPath);
+        }
+        return this.getLong(DotPath.of(propertyPath));
+    }
+    
+    /**
+     * Gets a number from the map by a compiled dot notation path as a long
+     * 
+     * @param path The compiled path
+     * @return The value
+     * @throws IllegalStateException If the value is not a number
+     */
+    public long getLong(DotPath path){
+        DotNotationMap parent = this.parentOf(path);
+        if (parent == null){
+            return number(this.getProperty(path), path).longValue();
+        }
+        return parent.longValue(path.segment(path.size() - 1), path);
+    }
+    
+    /**
+     * Gets a number from the map by a given dot notation string as an int. A
+     * {@link PrimitiveDotNotationMap} reads it without boxing it.
+     * 
+     * @param propertyPath The dot notation string
+     * @return The value
+     * @throws IllegalStateException If the value is not a number
+     */
+    public int getInt(String propertyPath){
+        if (propertyPath.indexOf('.') < 0){
+            return this.intValue(propertyPath, propertyPath);
+        }
+        return this.getInt(DotPath.of(propertyPath));
+    }
+    
+    /**
+     * Gets a number from the map by a compiled dot notation path as an int
+     * 
+     * @param path The compiled path
+     * @return The value
+     * @throws IllegalStateException If the value is not a number
+     */
+    public int getInt(DotPath path){
+        DotNotationMap parent = this.parentOf(path);
+        if (parent == null){
+            return number(this.getProperty(path), path).intValue();
+        }
+        return parent.intValue(path.segment(path.size() - 1), path);
+    }
+    
+    /**
+     * Gets a number from the map by a given dot notation string as a double. A
+     * {@link PrimitiveDotNotationMap} reads it without boxing it.
+     * 
+     * @param propertyPath The dot notation string
+     * @return The value
+     * @throws IllegalStateException If the value is not a number
+     */
+    public double getDouble(String propertyPath){
+        if (propertyPath.indexOf('.') < 0){
+            return this.doubleValue(propertyPath, propertyPath);
+        }
+        return this.getDouble(DotPath.of(propertyPath));
+    }
+    
+    /**
+     * Gets a number from the map by a compiled dot notation path as a double
+     * 
+     * @param path The compiled path
+     * @return The value
+     * @throws IllegalStateException If the value is not a number
+     */
+    public double getDouble(DotPath path){
+        DotNotationMap parent = this.parentOf(path);
+        if (parent == null){
+            return number(this.getProperty(path), path).doubleValue();
+        }
+        return parent.doubleValue(path.segment(path.size() - 1), path);
+    }
+    
+    /**
+     * Gets the map that holds the last segment of the path.
+     * 
+     * @param path The compiled path
+     * @return The map, or null if the last segment is in a list or the path doesn't exist
+     */
+    private DotNotationMap parentOf(DotPath path){
+        int last = path.size() - 1;
+        if (last == 0){
+            return this;
+        }
+        Object parent = this.getProperty(path, 0, last);
+        return (parent instanceof DotNotationMap) ? (DotNotationMap)parent : null;
+    }
+    
+    /**
+     * Gets the number under a single token as a long. A subclass that keeps
+     * numbers unboxed reads them here.
+     * 
+     * @param key The key without any dots
+     * @param path The whole path, for the error message
+     * @return The value
+     */
+    long longValue(String key, Object path){
+        return number(rawGet(key), path).longValue();
+    }
+    
+    /**
+     * Gets the number under a single token as an int
+     * 
+     * @param key The key without any dots
+     * @param path The whole path, for the error message
+     * @return The value
+     */
+    int intValue(String key, Object path){
+        return number(rawGet(key), path).intValue();
+    }
+    
+    /**
+     * Gets the number under a single token as a double
+     * 
+     * @param key The key without any dots
+     * @param path The whole path, for the error message
+     * @return The value
+     */
+    double doubleValue(String key, Object path){
+        return number(rawGet(key), path).doubleValue();
+    }
+    
+    static Number number(Object value, Object path){
+        if (value instanceof Number){
+            return (Number)value;
+        }
+        throw new IllegalStateException("The value at " + path + " is not a number. It is " + ((value == null) ? "null" : "a " + value.getClass().getName()));
+    }
+    
+    /**
+     * Walks the segments of the path from the given position.
+     * 
+     * @param path The compiled path
+     * @param from The segment to start with
+     * @param to One past the last segment to use
+     * @return The value or null
+     */
+    Object getProperty(DotPath path, int from, int to){
+        if (from == to - 1){
+            return this.getValueInternal(path.segment(from));
+        }
+        String token = path.segment(from);
+        //Get the value of the base token
+        Object val = rawGet(token);
+        if (val instanceof DotNotationMap){
+            //if the value is an instance of a DotNotationMap then get the property from it
+            return ((DotNotationMap)val).getProperty(path, from + 1, to); 
+        }else if(val instanceof DotNotationList){
+            //If the value is a list then get the property from it with the remaining path
+            return ((DotNotationList)val).getProperty(path, from + 1, to);
         }else{
+            //if the value was not a list or a map and there are more tokens to parse then this is the end of the road
             return null;
         }
     }
     
+    /**
+     * Gets the value of a single token, parsing it first if it is a deferred date.
+     * 
+     * @param token The key without any dots
+     * @return The value or null
+     */
+    private Object getValueInternal(String token){
+        Object val = rawGet(token);
+        if (val instanceof DeferredDate){
+            val = ((DeferredDate)val).resolve();
+            rawPut(token, val);
+        }
+        return val;
+    }
+    
     /**
      * Sets a property in the map using a dot notation string
      * 
@@ -87,24 +424,49 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
      * @param propertyValue The value
      */
     public final void setProperty(String propertyPath, Object propertyValue){
-        String[] path = propertyPath.split("\\.");
-        String token = path[0];
+        if (propertyPath.indexOf('.') < 0){
+            //If we are at the end of the path then we can got ahead and set the property value
+            this.setValueInternal(propertyPath, propertyValue);
+        }else{
+            this.setProperty(DotPath.of(propertyPath), 0, propertyValue);
+        }
+    }
+    
+    /**
+     * Sets a property in the map using a compiled dot notation path
+     * 
+     * @param path The compiled path
+     * @param propertyValue The value
+     */
+    public final void setProperty(DotPath path, Object propertyValue){
+        this.setProperty(path, 0, propertyValue);
+    }
+    
+    /**
+     * Sets a property using the segments of the path from the given position.
+     * 
+     * @param path The compiled path
+     * @param from The segment to start with
+     * @param propertyValue The value
+     */
+    final void setProperty(DotPath path, int from, Object propertyValue){
+        String token = path.segment(from);
         
-        if (path.length == 1){
+        if (from == path.size() - 1){
             //If we are at the end of the path then we can got ahead and set the property value
             this.setValueInternal(token, propertyValue);
         }else{
-            if (!this.containsKey(token)){
-                DotNotationMap map = new DotNotationMap();
-                map.setProperty(propertyPath.replaceFirst(token + "\\.", ""), propertyValue);
+            if (!rawContainsKey(token)){
+                DotNotationMap map = newMap();
+                map.setProperty(path, from + 1, propertyValue);
                 this.setValueInternal(token, map);
             }else{
-                Object val = this.getProperty(token);
+                Object val = this.getValueInternal(token);
                 if (val instanceof DotNotationMap){
-                    ((DotNotationMap)val).setProperty(propertyPath.replaceFirst(token + "\\.", ""), propertyValue);
+                    ((DotNotationMap)val).setProperty(path, from + 1, propertyValue);
                     this.setValueInternal(token, val);
                 }else if(val instanceof DotNotationList){
-                    ((DotNotationList)val).setProperty(propertyPath.replaceFirst(token + "\\.", ""), propertyValue);
+                    ((DotNotationList)val).setProperty(path, from + 1, propertyValue);
                     this.setValueInternal(token, val);
                 }else{
                     throw new RuntimeException("Cannot set sub properties after " + token + " if current value is not a DotNotationMap or a DotNotationList. Your value is a " + val.getClass().getName());
@@ -127,31 +489,36 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
      * @param key The index to put the value
      * @param value The valut to put there
      */
-    private void setValueInternal(String key, Object value){
+    void setValueInternal(String key, Object value){
         if (value instanceof Map){
             if (((Map)value).keySet().size() == 1 && ((Map)value).containsKey("$date")){
                 setValueInternal(key, ((Map)value).get("$date"));
             }else{
                 if (value instanceof DotNotationMap){
-                    super.put(key, value);
+                    rawPut(key, value);
                 }else{
-                    super.put(key, new DotNotationMap((Map)value));
+                    DotNotationMap map = newMap();
+                    map.putAll((Map)value);
+                    rawPut(key, map);
                 }
             }
         }else if (value instanceof List){
             if (value instanceof DotNotationList){
-                super.put(key, value);
+                rawPut(key, value);
             }else{
-                super.put(key, new DotNotationList((List)value));
+                rawPut(key, new DotNotationList((List)value, lazyDates, storage()));
             }
         }else{
-            super.put(key, convertValue(key, value));
+            rawPut(key, convertValue(key, value));
         }
     }
     
     /**
      * Check to see if the value is a string and that it can be parsed by the
      * {@link DateUtil}, it it is then it parses the string into a Date object.
+     * <p>
+     * In lazy date mode a string that might be a date is wrapped in a
+     * {@link DeferredDate} instead of being parsed.
      * 
      * @param key The property name
      * @param value The object to convert
@@ -159,7 +526,9 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
      */
     public Object convertValue(String key, Object value){
        
-        if (value instanceof String){
+        if (value instanceof String && lazyDates){
+            return DateUtil.mightBeDate((String)value) ? new DeferredDate((String)value) : value;
+        }else if (value instanceof String){
             Date date = DateUtil.parseString((String)value);
             if (date != null){
                 return date;
@@ -196,35 +565,94 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
     public boolean containsKey(Object k) {
         String key = (String)k;
         if (key.contains(".")){
-            String[] path = key.split("\\.");
-            String token = path[0];
-            if (super.containsKey(token)){
-                Object val = super.get(token);
-                if (val instanceof DotNotationMap){
-                    return ((DotNotationMap)val).containsKey(key.replaceFirst(token + "\\.", ""));
-                }else if (val instanceof DotNotationList){
-                    return ((DotNotationList)val).containsKey(key.replaceFirst(token + "\\.", ""));
-                }else{
-                    throw new IllegalStateException("The next value in the chain after " + token + " should be a DotNotationMap or a DotNotationList");
-                }
+            return this.containsKey(DotPath.of(key), 0);
+        }else{
+            return rawContainsKey(key);
+        }
+    }
+    
+    /**
+     * Checks if a property exists at the given compiled path
+     * 
+     * @param path The compiled path
+     * @return true if the property exists
+     */
+    public boolean containsKey(DotPath path){
+        return this.containsKey(path, 0);
+    }
+    
+    /**
+     * Checks the segments of the path from the given position.
+     * 
+     * @param path The compiled path
+     * @param from The segment to start with
+     * @return true if the property exists
+     */
+    boolean containsKey(DotPath path, int from){
+        String token = path.segment(from);
+        if (from == path.size() - 1){
+            return rawContainsKey(token);
+        }
+        if (rawContainsKey(token)){
+            Object val = rawGet(token);
+            if (val instanceof DotNotationMap){
+                return ((DotNotationMap)val).containsKey(path, from + 1);
+            }else if (val instanceof DotNotationList){
+                return ((DotNotationList)val).containsKey(path, from + 1);
             }else{
-                return false;
+                throw new IllegalStateException("The next value in the chain after " + token + " should be a DotNotationMap or a DotNotationList");
             }
         }else{
-            return super.containsKey(k);
+            return false;
         }
     }
     
     @Override
     public String toJson() throws JsonProcessingException {
         NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
-        String json = mapper.writeValueAsString(this);
+        String json = mapper.cachedWriterFor(getClass()).writeValueAsString(this);
         return json; 
     }
     
+    /**
+     * Writes this DotNotationMap as the next value of the generator using the date aware serializers
+     * 
+     * @param generator The generator to write to
+     * @throws IOException If the JSON can't be written
+     */
+    @Override
+    public void writeJson(JsonGenerator generator) throws IOException {
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
+        mapper.writeValue(generator, this);
+    }
+    
+    /**
+     * Writes this DotNotationMap to the stream as UTF-8 JSON without building a String
+     * 
+     * @param out The stream to write to. It is not closed
+     * @throws IOException If the JSON can't be written
+     */
+    @Override
+    public void writeJson(OutputStream out) throws IOException {
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
+        mapper.writeValueWithoutClosing(out, this);
+    }
+    
+    /**
+     * Writes this DotNotationMap to the writer as JSON without building a String
+     * 
+     * @param writer The writer to write to. It is not closed
+     * @throws IOException If the JSON can't be written
+     */
+    @Override
+    public void writeJson(Writer writer) throws IOException {
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
+        mapper.writeValueWithoutClosing(writer, this);
+    }
+    
     public String toPrettyJson() throws JsonProcessingException {
         NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
-        String json = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(this);
+        String json = mapper.cachedWriterFor(getClass()).withDefaultPrettyPrinter().writeValueAsString(this);
         return json; 
     }
     
@@ -235,15 +663,42 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
         
     }
     
+    /**
+     * Creates a map from JSON and optionally defers date parsing until values are read.
+     * 
+     * @param json The JSON object
+     * @param lazyDates true to parse date strings on first read
+     * @return The new map
+     * @throws JsonProcessingException On a parse exception
+     */
+    public static DotNotationMap fromJson(String json, boolean lazyDates) throws JsonProcessingException {
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsObjectMapper();
+        DotNotationMap dotNotationMap = mapper.cachedReaderFor(DotNotationMap.class).withValueToUpdate(new DotNotationMap(lazyDates)).readValue(json);
+        return dotNotationMap;
+    }
+    
     @Override
     public Object remove(Object key){
         if (((String)key).contains(".")){
-            List<String> parts = Arrays.asList(((String)key).split("\\."));
-            DotNotationMap root = this.getProperty(String.join(".", parts.subList(0, parts.size()-1)));
-            return root.remove(parts.get(parts.size()-1));
+            return this.remove(DotPath.of((String)key));
         }else{
-            return super.remove(key);
+            return rawRemove((String)key);
+        }
+    }
+    
+    /**
+     * Removes the property at the given compiled path
+     * 
+     * @param path The compiled path
+     * @return The removed value or null
+     */
+    public Object remove(DotPath path){
+        int last = path.size() - 1;
+        if (last == 0){
+            return rawRemove(path.segment(0));
         }
+        DotNotationMap root = (DotNotationMap)this.getProperty(path, 0, last);
+        return root.remove(path.segment(last));
     }
     
     public Map<String, Object> flatten(){
@@ -269,6 +724,8 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
     
     /**
      * Converts an object, using Jackson2 ObjectMapper to a DotNotationMap object.
+     * The object is serialized into a token buffer and read back from it so no JSON
+     * text is created.
      * If you are using this to create an object to store in MongoDb, only use it
      * if the object is not supported by Mongo. Example: Don't use it for a java.util.Date object.
      * @param obj The object to convert
@@ -278,11 +735,22 @@ public class DotNotationMap extends LinkedHashMap<String, Object> implements Jso
     public static DotNotationMap fromObject(Object obj) throws JsonProcessingException{
         
         NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsObjectMapper();
-        String json = mapper.writeValueAsString(obj);
-        if (json != null){
-            return DotNotationMap.fromJson(json);
-        }
-        return null;
+        return mapper.convertThroughTokens(obj, DotNotationMap.class);
+    }
+    
+    /**
+     * Converts this map, using Jackson2 ObjectMapper, to an object of the given class.
+     * Dates are written the same way toJson writes them, so this gives the same
+     * result as reading the output of toJson into the class, without the JSON text.
+     * 
+     * @param <T> The type to convert to
+     * @param clazz The class to convert to
+     * @return The created object
+     * @throws com.fasterxml.jackson.core.JsonProcessingException On a conversion exception
+     */
+    public <T> T toObject(Class<T> clazz) throws JsonProcessingException{
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
+        return mapper.convertThroughTokens(this, clazz);
     }
     
 }
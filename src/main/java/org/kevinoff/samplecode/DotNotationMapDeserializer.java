@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import java.io.IOException;
+
+/**
+ * A custom Deserializer used in Jackson2Json to build a DotNotationMap in a
+ * single pass over the tokens using {@link DotNotationTreeReader}.
+ * 
+ * @author kevin.off
+ */
+public class DotNotationMapDeserializer extends StdDeserializer<DotNotationMap>{
+
+    public DotNotationMapDeserializer(){
+        super(DotNotationMap.class);
+    }
+
+    /**
+     * Builds a new DotNotationMap from the current JSON value
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @return The new DotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public DotNotationMap deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return DotNotationTreeReader.readMap(p, ctxt, new DotNotationMap());
+    }
+
+    /**
+     * Adds the current JSON value to an existing DotNotationMap
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @param intoValue the DotNotationMap to fill
+     * @return The filled DotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public DotNotationMap deserialize(JsonParser p, DeserializationContext ctxt, DotNotationMap intoValue) throws IOException {
+        return DotNotationTreeReader.readMap(p, ctxt, intoValue);
+    }
+
+}
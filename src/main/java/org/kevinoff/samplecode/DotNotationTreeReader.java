@@ -0,0 +1,382 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.JsonTokenId;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * Builds DotNotationMap and DotNotationList trees straight from a JSON token stream.
+ * <p>
+ * Every object and array is created once, directly as the DotNotationMap or
+ * DotNotationList it ends up as, and every value goes through the same
+ * setProperty / setValueInternal logic that putAll and the copy constructors
+ * use. That keeps the Mongo "$date" unwrapping, date conversion, lazy date mode
+ * and dotted keys working exactly the way they do when a plain Map or List is
+ * copied in.
+ *
+ * @author kevin.off
+ */
+final class DotNotationTreeReader {
+
+    private static final int INT_COERCIONS = DeserializationFeature.USE_BIG_INTEGER_FOR_INTS.getMask()
+            | DeserializationFeature.USE_LONG_FOR_INTS.getMask();
+    private static final String MONGO_DATE = "$date";
+
+    private DotNotationTreeReader(){}
+
+    /**
+     * Reads a JSON object into the given map.
+     *
+     * @param p The parser, positioned on START_OBJECT or on the first FIELD_NAME
+     * @param ctxt The deserialization context
+     * @param map The map to fill
+     * @return The filled map
+     * @throws IOException If the JSON can't be read
+     */
+    static DotNotationMap readMap(JsonParser p, DeserializationContext ctxt, DotNotationMap map) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.START_OBJECT){
+            p.nextToken();
+        }else if (t != JsonToken.FIELD_NAME && t != JsonToken.END_OBJECT){
+            return (DotNotationMap)ctxt.handleUnexpectedToken(DotNotationMap.class, p);
+        }
+        readFields(p, ctxt, map);
+        return map;
+    }
+
+    /**
+     * Reads a JSON array into the given list.
+     *
+     * @param p The parser, positioned on START_ARRAY
+     * @param ctxt The deserialization context
+     * @param list The list to fill
+     * @return The filled list
+     * @throws IOException If the JSON can't be read
+     */
+    static DotNotationList readList(JsonParser p, DeserializationContext ctxt, DotNotationList list) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY){
+            return (DotNotationList)ctxt.handleUnexpectedToken(DotNotationList.class, p);
+        }
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY){
+            if (t == JsonToken.START_OBJECT){
+                readObjectInto(p, ctxt, list);
+            }else{
+                list.setValueInternal(list.size(), readValue(p, ctxt, list.isLazyDates(), list.getMapStorage()));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Reads the fields of an object until its END_OBJECT.
+     *
+     * @param p The parser, positioned on a FIELD_NAME or END_OBJECT
+     * @param ctxt The deserialization context
+     * @param map The map to fill
+     * @throws IOException If the JSON can't be read
+     */
+    static void readFields(JsonParser p, DeserializationContext ctxt, DotNotationMap map) throws IOException {
+        for (JsonToken t = p.currentToken(); t == JsonToken.FIELD_NAME; t = p.nextToken()){
+            String key = p.getCurrentName();
+            p.nextToken();
+            readField(p, ctxt, map, key);
+        }
+        map.trimToSize();
+    }
+
+    /**
+     * Reads the value at the current token and sets it in the map.
+     *
+     * @param p The parser, positioned on the first token of the value
+     * @param ctxt The deserialization context
+     * @param map The map to set the value in
+     * @param key The key to set it under
+     * @throws IOException If the JSON can't be read
+     */
+    static void readField(JsonParser p, DeserializationContext ctxt, DotNotationMap map, String key) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.START_OBJECT){
+            readObjectInto(p, ctxt, map, key);
+            return;
+        }
+        if (t.isNumeric() && map.storage() == DotNotationMap.Storage.PRIMITIVE && readUnboxed(p, ctxt, (CompactDotNotationMap)map, key)){
+            return;
+        }
+        map.setProperty(key, readValue(p, ctxt, map.isLazyDates(), map.storage()));
+    }
+
+    /**
+     * Puts the number at the current token in the map without boxing it. It
+     * holds the same value readValue would have returned. Dotted keys, numbers
+     * that don't fit a long and the BigInteger and BigDecimal features are
+     * left to readValue.
+     *
+     * @param p The parser, positioned on a number
+     * @param ctxt The deserialization context
+     * @param map The map to put the number in
+     * @param key The key to put it under
+     * @return false if the number has to be read boxed
+     * @throws IOException If the number can't be read
+     */
+    private static boolean readUnboxed(JsonParser p, DeserializationContext ctxt, CompactDotNotationMap map, String key) throws IOException {
+        if (key.indexOf('.') >= 0){
+            return false;
+        }
+        if (p.currentToken() == JsonToken.VALUE_NUMBER_INT){
+            if (ctxt.hasSomeOfFeatures(INT_COERCIONS)){
+                return false;
+            }
+            switch (p.getNumberType()){
+                case INT:
+                    map.putInt(key, p.getIntValue());
+                    return true;
+                case LONG:
+                    long l = p.getLongValue();
+                    if (l == (int)l){
+                        map.putInt(key, (int)l);
+                    }else{
+                        map.putLong(key, l);
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        if (ctxt.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS) || p.getNumberType() == JsonParser.NumberType.FLOAT){
+            return false;
+        }
+        map.putDouble(key, p.getDoubleValue());
+        return true;
+    }
+
+    /**
+     * Reads the value at the current token. Objects and arrays become
+     * DotNotationMaps and DotNotationLists. Scalars are returned as they are so
+     * the container they are set into can convert them.
+     *
+     * @param p The parser, positioned on the first token of the value
+     * @param ctxt The deserialization context
+     * @param lazyDates The date mode for new maps and lists
+     * @param storage How new maps store their entries
+     * @return The value
+     * @throws IOException If the JSON can't be read
+     */
+    static Object readValue(JsonParser p, DeserializationContext ctxt, boolean lazyDates, DotNotationMap.Storage storage) throws IOException {
+        switch (p.currentTokenId()){
+            case JsonTokenId.ID_START_OBJECT:
+                return readMap(p, ctxt, storage.newMap(lazyDates));
+            case JsonTokenId.ID_START_ARRAY:
+                return readList(p, ctxt, new DotNotationList(null, lazyDates, storage));
+            case JsonTokenId.ID_STRING:
+                return p.getText();
+            case JsonTokenId.ID_NUMBER_INT:
+                if (ctxt.hasSomeOfFeatures(INT_COERCIONS)){
+                    if (ctxt.isEnabled(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS)){
+                        return p.getBigIntegerValue();
+                    }
+                    return p.getLongValue();
+                }
+                return readInteger(p);
+            case JsonTokenId.ID_NUMBER_FLOAT:
+                if (ctxt.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)){
+                    return p.getDecimalValue();
+                }
+                if (p.getNumberType() == JsonParser.NumberType.FLOAT){
+                    //Floats buffered by a TokenBuffer read back the way their JSON text would
+                    return Double.valueOf(Float.toString(p.getFloatValue()));
+                }
+                return p.getDoubleValue();
+            case JsonTokenId.ID_TRUE:
+                return Boolean.TRUE;
+            case JsonTokenId.ID_FALSE:
+                return Boolean.FALSE;
+            case JsonTokenId.ID_NULL:
+                return null;
+            case JsonTokenId.ID_EMBEDDED_OBJECT:
+                Object embedded = p.getEmbeddedObject();
+                if (embedded instanceof byte[]){
+                    //Binary buffered by a TokenBuffer reads back as the Base64 text it would have been written as
+                    return ctxt.getBase64Variant().encode((byte[])embedded);
+                }
+                return embedded;
+            default:
+                return ctxt.handleUnexpectedToken(Object.class, p);
+        }
+    }
+
+    /**
+     * Reads an integer as the smallest of Integer, Long and BigInteger that
+     * holds it. That is what a text parser returns already, and it makes numbers
+     * buffered by a TokenBuffer come back the way their JSON text would.
+     *
+     * @param p The parser, positioned on VALUE_NUMBER_INT
+     * @return The number
+     * @throws IOException If the number can't be read
+     */
+    private static Number readInteger(JsonParser p) throws IOException {
+        switch (p.getNumberType()){
+            case INT:
+                return p.getIntValue();
+            case LONG:
+                long l = p.getLongValue();
+                return (l == (int)l) ? (Number)Integer.valueOf((int)l) : (Number)Long.valueOf(l);
+            default:
+                BigInteger big = p.getBigIntegerValue();
+                if (big.bitLength() <= 31){
+                    return big.intValue();
+                }else if (big.bitLength() <= 63){
+                    return big.longValue();
+                }
+                return big;
+        }
+    }
+
+    /**
+     * Reads only the selected paths of a JSON object into the given map. Every
+     * other field and array element is passed over with skipChildren, so
+     * nothing is built for it. Selected values are set exactly the way readMap
+     * would set them.
+     *
+     * @param p The parser, positioned on START_OBJECT
+     * @param ctxt The deserialization context
+     * @param map The map to fill
+     * @param paths The paths to keep
+     * @return The filled map
+     * @throws IOException If the JSON can't be read
+     */
+    static DotNotationMap readProjectedMap(JsonParser p, DeserializationContext ctxt, DotNotationMap map, PathTrie paths) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT){
+            return (DotNotationMap)ctxt.handleUnexpectedToken(DotNotationMap.class, p);
+        }
+        readProjectedFields(p, ctxt, map, paths);
+        return map;
+    }
+
+    /**
+     * Reads the selected fields of an object until its END_OBJECT.
+     */
+    private static void readProjectedFields(JsonParser p, DeserializationContext ctxt, DotNotationMap map, PathTrie paths) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME){
+            String key = p.getCurrentName();
+            PathTrie node = paths.child(key);
+            p.nextToken();
+            if (node == null){
+                p.skipChildren();
+            }else if (node.isTerminal()){
+                readField(p, ctxt, map, key);
+            }else{
+                Object value = readProjectedValue(p, ctxt, node, map.isLazyDates(), map.storage());
+                if (value != null){
+                    map.setProperty(key, value);
+                }
+            }
+        }
+        map.trimToSize();
+    }
+
+    /**
+     * Reads the selected parts of an array. Elements before a selected one are
+     * kept as nulls so every element stays at its original index.
+     *
+     * @return The list, or null if nothing in the array was selected
+     */
+    private static DotNotationList readProjectedList(JsonParser p, DeserializationContext ctxt, PathTrie paths, boolean lazyDates, DotNotationMap.Storage storage) throws IOException {
+        DotNotationList list = null;
+        JsonToken t;
+        for (int index = 0; (t = p.nextToken()) != JsonToken.END_ARRAY; index++){
+            PathTrie node = paths.child(index);
+            if (node == null){
+                p.skipChildren();
+                continue;
+            }
+            if (list == null){
+                list = new DotNotationList(null, lazyDates, storage);
+            }
+            while (list.size() < index){
+                list.addUnconverted(null);
+            }
+            if (node.isTerminal()){
+                if (t == JsonToken.START_OBJECT){
+                    readObjectInto(p, ctxt, list);
+                }else{
+                    list.setValueInternal(list.size(), readValue(p, ctxt, lazyDates, storage));
+                }
+            }else{
+                Object value = readProjectedValue(p, ctxt, node, lazyDates, storage);
+                if (value != null){
+                    list.setValueInternal(list.size(), value);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Reads the selected parts of a value that a path goes through but does not
+     * end at. Only objects and arrays can have selected parts.
+     *
+     * @return The map or list, or null if nothing in the value was selected
+     */
+    private static Object readProjectedValue(JsonParser p, DeserializationContext ctxt, PathTrie paths, boolean lazyDates, DotNotationMap.Storage storage) throws IOException {
+        switch (p.currentTokenId()){
+            case JsonTokenId.ID_START_OBJECT:
+                DotNotationMap map = storage.newMap(lazyDates);
+                readProjectedFields(p, ctxt, map, paths);
+                return map.isEmpty() ? null : map;
+            case JsonTokenId.ID_START_ARRAY:
+                return readProjectedList(p, ctxt, paths, lazyDates, storage);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads an object that is the value of a field. A Mongo {"$date": value}
+     * wrapper is unwrapped without building a map for it.
+     */
+    private static void readObjectInto(JsonParser p, DeserializationContext ctxt, DotNotationMap parent, String key) throws IOException {
+        DotNotationMap child = parent.newMap();
+        if (p.nextToken() == JsonToken.FIELD_NAME && MONGO_DATE.equals(p.getCurrentName())){
+            p.nextToken();
+            Object date = readValue(p, ctxt, parent.isLazyDates(), parent.storage());
+            if (p.nextToken() == JsonToken.END_OBJECT){
+                parent.setProperty(key, date);
+                return;
+            }
+            child.setProperty(MONGO_DATE, date);
+        }
+        readFields(p, ctxt, child);
+        parent.setProperty(key, child);
+    }
+
+    /**
+     * Reads an object that is an element of a list. A Mongo {"$date": value}
+     * wrapper is unwrapped and, like the list's own setValueInternal, the
+     * unwrapped value is added without converting it.
+     */
+    private static void readObjectInto(JsonParser p, DeserializationContext ctxt, DotNotationList parent) throws IOException {
+        DotNotationMap child = parent.newMap();
+        if (p.nextToken() == JsonToken.FIELD_NAME && MONGO_DATE.equals(p.getCurrentName())){
+            p.nextToken();
+            Object date = readValue(p, ctxt, parent.isLazyDates(), parent.getMapStorage());
+            if (p.nextToken() == JsonToken.END_OBJECT){
+                parent.addUnconverted(date);
+                return;
+            }
+            child.setProperty(MONGO_DATE, date);
+        }
+        readFields(p, ctxt, child);
+        parent.setValueInternal(parent.size(), child);
+    }
+
+}
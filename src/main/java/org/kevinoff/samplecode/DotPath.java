@@ -0,0 +1,161 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A dot notation path that has already been split into its segments.
+ * <p>
+ * {@link DotNotationMap} and {@link DotNotationList} walk a DotPath one segment
+ * at a time by index, so a lookup does no string splitting, regex matching or
+ * integer parsing. Segments that are made up of only digits also carry their
+ * parsed list index.
+ * <p>
+ * DotPaths are immutable and may be shared between threads. Use {@link #of(String)}
+ * to get a cached instance or {@link #compile(String)} to create one that you
+ * keep around yourself.
+ *
+ * @author kevin.off
+ */
+public final class DotPath {
+
+    /**
+     * The cache is cleared once it holds this many paths
+     */
+    private static final int MAX_CACHED_PATHS = 4096;
+    private static final ConcurrentHashMap<String, DotPath> cache = new ConcurrentHashMap<>();
+
+    private final String path;
+    private final String[] segments;
+    private final int[] indices;
+
+    private DotPath(String path, String[] segments){
+        this.path = path;
+        this.segments = segments;
+        this.indices = new int[segments.length];
+        for (int i = 0; i < segments.length; i++){
+            indices[i] = parseIndex(segments[i]);
+        }
+    }
+
+    /**
+     * Gets the compiled form of the path from the cache, compiling it if needed.
+     *
+     * @param path The dot notation string
+     * @return The compiled path
+     */
+    public static DotPath of(String path){
+        DotPath dotPath = cache.get(path);
+        if (dotPath == null){
+            dotPath = compile(path);
+            if (cache.size() >= MAX_CACHED_PATHS){
+                cache.clear();
+            }
+            cache.put(path, dotPath);
+        }
+        return dotPath;
+    }
+
+    /**
+     * Compiles the path without using the cache.
+     * <p>
+     * The path is split on '.' the same way String.split does it, so
+     * trailing empty segments are dropped.
+     *
+     * @param path The dot notation string
+     * @return The compiled path
+     */
+    public static DotPath compile(String path){
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int dot;
+        while ((dot = path.indexOf('.', start)) >= 0){
+            parts.add(path.substring(start, dot));
+            start = dot + 1;
+        }
+        parts.add(path.substring(start));
+        if (path.isEmpty()){
+            return new DotPath(path, new String[]{""});
+        }
+        int size = parts.size();
+        while (size > 0 && parts.get(size - 1).isEmpty()){
+            size--;
+        }
+        if (size == 0){
+            throw new IllegalArgumentException("The path " + path + " does not contain any tokens");
+        }
+        return new DotPath(path, parts.subList(0, size).toArray(new String[size]));
+    }
+
+    /**
+     * Parses a segment as a list index.
+     *
+     * @param segment The segment
+     * @return The index, or -1 if the segment is not only digits
+     */
+    private static int parseIndex(String segment){
+        if (segment.isEmpty()){
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < segment.length(); i++){
+            int d = segment.charAt(i) - '0';
+            if (d < 0 || d > 9){
+                return -1;
+            }
+            value = Math.min(value * 10 + d, Integer.MAX_VALUE);
+        }
+        return (int)value;
+    }
+
+    /**
+     * Gets the number of segments in the path
+     *
+     * @return The number of segments
+     */
+    public int size(){
+        return segments.length;
+    }
+
+    /**
+     * Gets a segment of the path
+     *
+     * @param i The position of the segment
+     * @return The segment
+     */
+    public String segment(int i){
+        return segments[i];
+    }
+
+    /**
+     * Gets a segment of the path as a list index
+     *
+     * @param i The position of the segment
+     * @return The index, or -1 if the segment is not an integer
+     */
+    public int index(int i){
+        return indices[i];
+    }
+
+    @Override
+    public String toString(){
+        return path;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        return o instanceof DotPath && ((DotPath)o).path.equals(path);
+    }
+
+    @Override
+    public int hashCode(){
+        return path.hashCode();
+    }
+
+}
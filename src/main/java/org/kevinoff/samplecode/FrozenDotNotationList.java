@@ -0,0 +1,255 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A deeply immutable snapshot of a DotNotationList, made by
+ * {@link DotNotationList#freeze()}. It makes the same guarantees as a
+ * {@link FrozenDotNotationMap}: nothing in it changes, it can be read from any
+ * number of threads without locking and {@link #thaw()} gives back a copy of
+ * the whole tree that can be changed.
+ *
+ * @author kevin.off
+ * @param <T> The type of the elements
+ */
+public final class FrozenDotNotationList<T> extends DotNotationList<T> {
+
+    private final Object[] elements;
+    private final List<T> view;
+
+    /**
+     * Freezes a list
+     *
+     * @param source The list to freeze
+     */
+    FrozenDotNotationList(DotNotationList<?> source){
+        super(null, source.isLazyDates(), source.getMapStorage());
+        Object[] copy = new Object[source.size()];
+        for (int i = 0; i < copy.length; i++){
+            copy[i] = FrozenDotNotationMap.freezeValue(source.rawGet(i));
+        }
+        this.elements = copy;
+        this.view = Collections.unmodifiableList((List<T>)Arrays.asList(copy));
+    }
+
+    /**
+     * Gets a mutable copy of this list and everything in it
+     *
+     * @return The thawed list
+     */
+    public DotNotationList<T> thaw(){
+        DotNotationList<T> list = newList();
+        list.ensureCapacity(elements.length);
+        for (Object element : elements){
+            list.addUnconverted(FrozenDotNotationMap.copyValue(element));
+        }
+        return list;
+    }
+
+    /**
+     * Gets this list, since it is already frozen
+     *
+     * @return This list
+     */
+    @Override
+    public FrozenDotNotationList<T> freeze(){
+        return this;
+    }
+
+    @Override
+    public boolean isFrozen(){
+        return true;
+    }
+
+    @Override
+    Object rawGet(int index){
+        if (index >= elements.length){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + elements.length);
+        }
+        return elements[index];
+    }
+
+    @Override
+    void setValueInternal(int key, T value){
+        throw unsupported();
+    }
+
+    @Override
+    void addUnconverted(Object value){
+        throw unsupported();
+    }
+
+    @Override
+    public int size(){
+        return elements.length;
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return elements.length == 0;
+    }
+
+    @Override
+    public boolean contains(Object o){
+        return view.contains(o);
+    }
+
+    @Override
+    public int indexOf(Object o){
+        return view.indexOf(o);
+    }
+
+    @Override
+    public int lastIndexOf(Object o){
+        return view.lastIndexOf(o);
+    }
+
+    @Override
+    public Object[] toArray(){
+        return view.toArray();
+    }
+
+    @Override
+    public <E> E[] toArray(E[] a){
+        return view.toArray(a);
+    }
+
+    @Override
+    public Iterator<T> iterator(){
+        return view.iterator();
+    }
+
+    @Override
+    public ListIterator<T> listIterator(){
+        return view.listIterator();
+    }
+
+    @Override
+    public ListIterator<T> listIterator(int index){
+        return view.listIterator(index);
+    }
+
+    @Override
+    public List<T> subList(int fromIndex, int toIndex){
+        return view.subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public void forEach(Consumer<? super T> action){
+        view.forEach(action);
+    }
+
+    @Override
+    public Spliterator<T> spliterator(){
+        return view.spliterator();
+    }
+
+    @Override
+    public boolean equals(Object o){
+        return o == this || view.equals(o);
+    }
+
+    @Override
+    public int hashCode(){
+        return view.hashCode();
+    }
+
+    @Override
+    public T remove(int index){
+        throw unsupported();
+    }
+
+    @Override
+    public boolean remove(Object o){
+        throw unsupported();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c){
+        throw unsupported();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c){
+        throw unsupported();
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super T> filter){
+        throw unsupported();
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<T> operator){
+        throw unsupported();
+    }
+
+    @Override
+    public void sort(Comparator<? super T> c){
+        throw unsupported();
+    }
+
+    @Override
+    public void clear(){
+        throw unsupported();
+    }
+
+    /**
+     * Gets this list, since it can't change
+     *
+     * @return This list
+     */
+    @Override
+    public Object clone(){
+        return this;
+    }
+
+    private static UnsupportedOperationException unsupported(){
+        return new UnsupportedOperationException("A frozen DotNotationList can't be changed. Thaw it to get a copy that can.");
+    }
+
+    private Object writeReplace(){
+        return new SerializedForm(this);
+    }
+
+    /**
+     * What a frozen list is serialized as, since the final fields can't be
+     * filled in by readObject
+     */
+    private static final class SerializedForm implements Serializable {
+        private final Object[] elements;
+        private final boolean lazyDates;
+        private final DotNotationMap.Storage mapStorage;
+
+        private SerializedForm(FrozenDotNotationList<?> list){
+            this.elements = list.elements;
+            this.lazyDates = list.isLazyDates();
+            this.mapStorage = list.getMapStorage();
+        }
+
+        private Object readResolve(){
+            DotNotationList<Object> list = new DotNotationList<>(null, lazyDates, mapStorage);
+            for (Object element : elements){
+                list.addUnconverted(element);
+            }
+            return new FrozenDotNotationList<>(list);
+        }
+    }
+
+}
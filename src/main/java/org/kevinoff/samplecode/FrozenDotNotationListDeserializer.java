@@ -0,0 +1,39 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import java.io.IOException;
+
+/**
+ * A custom Deserializer used in Jackson2Json to read a FrozenDotNotationList.
+ * The JSON is read into a DotNotationList with {@link DotNotationTreeReader}
+ * and then frozen.
+ * 
+ * @author kevin.off
+ */
+public class FrozenDotNotationListDeserializer extends StdDeserializer<FrozenDotNotationList>{
+
+    public FrozenDotNotationListDeserializer(){
+        super(FrozenDotNotationList.class);
+    }
+
+    /**
+     * Builds a new FrozenDotNotationList from the current JSON value
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @return The new FrozenDotNotationList
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public FrozenDotNotationList deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return DotNotationTreeReader.readList(p, ctxt, new DotNotationList()).freeze();
+    }
+
+}
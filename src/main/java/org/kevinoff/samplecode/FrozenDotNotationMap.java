@@ -0,0 +1,475 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A deeply immutable snapshot of a DotNotationMap, made by
+ * {@link DotNotationMap#freeze()}.
+ * <p>
+ * The nested maps and lists are frozen as well, deferred dates are parsed and
+ * dates are copied into ones that can't be changed, so nothing reached
+ * through the snapshot changes, not even on read. Every field is final, so a
+ * snapshot can be handed to other threads any way at all, even through a
+ * plain field, and read from all of them without locking. Anything that would
+ * change it throws an UnsupportedOperationException.
+ * <p>
+ * The map freeze returns looks up every dot notation path that goes through
+ * maps in a table built when it is frozen, so getProperty("a.b.c") is a
+ * single hash lookup. Paths into lists, and paths on the maps nested inside,
+ * are walked like they are in a DotNotationMap. The table holds one entry for
+ * each map entry in the snapshot.
+ * <p>
+ * {@link #thaw()} gives back a DotNotationMap that can be changed. The whole
+ * tree is copied, so every map, list and date reached through the copy can be
+ * changed and nothing in it is shared with the snapshot. Nothing is parsed or
+ * converted again, which makes it far cheaper than reading the JSON again.
+ * Frozen maps and lists put into an ordinary map stay frozen and are shared,
+ * and reading them never changes the map they are in.
+ * <pre>
+ * FrozenDotNotationMap config = DotNotationMap.fromJson(json).freeze();
+ * //On any thread
+ * String url = config.getProperty("services.auth.url");
+ * DotNotationMap copy = config.thaw();
+ * copy.setProperty("services.auth.timeout", 10);
+ * </pre>
+ *
+ * @author kevin.off
+ */
+public final class FrozenDotNotationMap extends DotNotationMap {
+
+    private static final Object MISSING = new Object();
+
+    private final Map<String, Object> entries;
+    /**
+     * Every path through maps and its value, or null for a nested map
+     */
+    private final Map<String, Object> paths;
+    /**
+     * How the map this was frozen from stored its entries, for thaw
+     */
+    private final DotNotationMap.Storage thawStorage;
+
+    /**
+     * Freezes a map
+     *
+     * @param source The map to freeze
+     * @param indexed true to build the path table
+     */
+    FrozenDotNotationMap(DotNotationMap source, boolean indexed){
+        this(source, indexed, source.isFrozen() ? ((FrozenDotNotationMap)source).thawStorage : source.storage());
+    }
+
+    private FrozenDotNotationMap(DotNotationMap source, boolean indexed, DotNotationMap.Storage thawStorage){
+        super(source.isLazyDates());
+        this.thawStorage = thawStorage;
+        Map<String, Object> copy = new LinkedHashMap<>(capacity(source.size()));
+        for (Map.Entry<String, Object> entry : source.entrySet()){
+            copy.put(entry.getKey(), freezeValue(entry.getValue()));
+        }
+        this.entries = Collections.unmodifiableMap(copy);
+        if (indexed){
+            Map<String, Object> table = new HashMap<>();
+            index(table, null, entries);
+            this.paths = table;
+        }else{
+            this.paths = null;
+        }
+    }
+
+    /**
+     * Gets a mutable copy of this map and everything in it
+     *
+     * @return The thawed map
+     */
+    public DotNotationMap thaw(){
+        DotNotationMap map = thawStorage.newMap(isLazyDates());
+        for (Map.Entry<String, Object> entry : entries.entrySet()){
+            map.rawPut(entry.getKey(), copyValue(entry.getValue()));
+        }
+        map.trimToSize();
+        return map;
+    }
+
+    /**
+     * Gets this map, or a copy that shares the nested maps and has its own
+     * path table if this is a map nested in a frozen one
+     *
+     * @return The frozen map
+     */
+    @Override
+    public FrozenDotNotationMap freeze(){
+        return (paths != null) ? this : new FrozenDotNotationMap(this, true);
+    }
+
+    @Override
+    public boolean isFrozen(){
+        return true;
+    }
+
+    @Override
+    public <T> T getProperty(String propertyPath){
+        if (paths != null){
+            Object value = paths.getOrDefault(propertyPath, MISSING);
+            if (value != MISSING){
+                return (T)value;
+            }
+        }
+        return super.getProperty(propertyPath);
+    }
+
+    @Override
+    public <T> T getProperty(DotPath path){
+        if (paths != null){
+            Object value = paths.getOrDefault(path.toString(), MISSING);
+            if (value != MISSING){
+                return (T)value;
+            }
+        }
+        return super.getProperty(path);
+    }
+
+    @Override
+    public long getLong(String propertyPath){
+        return number(getProperty(propertyPath), propertyPath).longValue();
+    }
+
+    @Override
+    public long getLong(DotPath path){
+        return number(getProperty(path), path).longValue();
+    }
+
+    @Override
+    public int getInt(String propertyPath){
+        return number(getProperty(propertyPath), propertyPath).intValue();
+    }
+
+    @Override
+    public int getInt(DotPath path){
+        return number(getProperty(path), path).intValue();
+    }
+
+    @Override
+    public double getDouble(String propertyPath){
+        return number(getProperty(propertyPath), propertyPath).doubleValue();
+    }
+
+    @Override
+    public double getDouble(DotPath path){
+        return number(getProperty(path), path).doubleValue();
+    }
+
+    @Override
+    Object rawGet(String key){
+        return entries.get(key);
+    }
+
+    @Override
+    Object rawPut(String key, Object value){
+        throw unsupported();
+    }
+
+    @Override
+    boolean rawContainsKey(String key){
+        return entries.containsKey(key);
+    }
+
+    @Override
+    Object rawRemove(String key){
+        throw unsupported();
+    }
+
+    @Override
+    void trimToSize(){
+    }
+
+    @Override
+    public int size(){
+        return entries.size();
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return entries.isEmpty();
+    }
+
+    @Override
+    public boolean containsValue(Object value){
+        return entries.containsValue(value);
+    }
+
+    @Override
+    public Set<String> keySet(){
+        return entries.keySet();
+    }
+
+    @Override
+    public Collection<Object> values(){
+        return entries.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet(){
+        return entries.entrySet();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action){
+        entries.forEach(action);
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue){
+        return entries.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public boolean equals(Object o){
+        return o == this || entries.equals(o);
+    }
+
+    @Override
+    public int hashCode(){
+        return entries.hashCode();
+    }
+
+    @Override
+    public String toString(){
+        return entries.toString();
+    }
+
+    @Override
+    public void clear(){
+        throw unsupported();
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function){
+        throw unsupported();
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value){
+        throw unsupported();
+    }
+
+    @Override
+    public boolean remove(Object key, Object value){
+        throw unsupported();
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue){
+        throw unsupported();
+    }
+
+    @Override
+    public Object replace(String key, Object value){
+        throw unsupported();
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction){
+        throw unsupported();
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction){
+        throw unsupported();
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction){
+        throw unsupported();
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction){
+        throw unsupported();
+    }
+
+    /**
+     * Gets this map, since it can't change
+     *
+     * @return This map
+     */
+    @Override
+    public Object clone(){
+        return this;
+    }
+
+    private static UnsupportedOperationException unsupported(){
+        return new UnsupportedOperationException("A frozen DotNotationMap can't be changed. Thaw it to get a copy that can.");
+    }
+
+    private static int capacity(int entries){
+        return Math.max(16, (int)(entries / 0.75f) + 1);
+    }
+
+    /**
+     * Adds the path of every entry of the map, and of the maps nested in it, to
+     * the table. Keys that are empty or have a dot in them can't be reached by
+     * a path, so they and everything under them are left to the walk.
+     */
+    private static void index(Map<String, Object> table, String prefix, Map<String, Object> map){
+        for (Map.Entry<String, Object> entry : map.entrySet()){
+            String key = entry.getKey();
+            if (key.isEmpty() || key.indexOf('.') >= 0){
+                continue;
+            }
+            String path = (prefix == null) ? key : prefix + "." + key;
+            Object value = entry.getValue();
+            table.put(path, value);
+            if (value instanceof FrozenDotNotationMap){
+                index(table, path, ((FrozenDotNotationMap)value).entries);
+            }
+        }
+    }
+
+    /**
+     * Gets the frozen form of a value. Maps and lists that are already frozen
+     * are shared.
+     *
+     * @param value The value
+     * @return The frozen value
+     */
+    static Object freezeValue(Object value){
+        if (value instanceof DeferredDate){
+            value = ((DeferredDate)value).resolve();
+        }
+        if (value instanceof DotNotationMap){
+            DotNotationMap map = (DotNotationMap)value;
+            return map.isFrozen() ? map : new FrozenDotNotationMap(map, false);
+        }
+        if (value instanceof DotNotationList){
+            DotNotationList<?> list = (DotNotationList<?>)value;
+            return list.isFrozen() ? list : new FrozenDotNotationList<>(list);
+        }
+        if (value != null && value.getClass() == Date.class){
+            return new FrozenDate(((Date)value).getTime());
+        }
+        return value;
+    }
+
+    /**
+     * Gets the form of a value that goes in a thawed map or list. Frozen maps
+     * and lists are thawed and dates are copied into ones that can be
+     * changed.
+     *
+     * @param value The frozen value
+     * @return The value to put in the thawed map or list
+     */
+    static Object copyValue(Object value){
+        if (value instanceof FrozenDate){
+            return new Date(((Date)value).getTime());
+        }
+        if (value instanceof FrozenDotNotationMap){
+            return ((FrozenDotNotationMap)value).thaw();
+        }
+        if (value instanceof FrozenDotNotationList){
+            return ((FrozenDotNotationList<?>)value).thaw();
+        }
+        return value;
+    }
+
+    private Object writeReplace(){
+        return new SerializedForm(this);
+    }
+
+    /**
+     * What a frozen map is serialized as, since the final fields can't be
+     * filled in by readObject
+     */
+    private static final class SerializedForm implements Serializable {
+        private final LinkedHashMap<String, Object> entries;
+        private final boolean lazyDates;
+        private final boolean indexed;
+        private final DotNotationMap.Storage thawStorage;
+
+        private SerializedForm(FrozenDotNotationMap map){
+            this.entries = new LinkedHashMap<>(map.entries);
+            this.lazyDates = map.isLazyDates();
+            this.indexed = map.paths != null;
+            this.thawStorage = map.thawStorage;
+        }
+
+        private Object readResolve(){
+            DotNotationMap map = new DotNotationMap(lazyDates);
+            for (Map.Entry<String, Object> entry : entries.entrySet()){
+                map.rawPut(entry.getKey(), entry.getValue());
+            }
+            return new FrozenDotNotationMap(map, indexed, thawStorage);
+        }
+    }
+
+    /**
+     * A date that can't be changed. Cloning it gives a plain Date.
+     */
+    private static final class FrozenDate extends Date {
+
+        private FrozenDate(long time){
+            super(time);
+        }
+
+        @Override
+        public void setTime(long time){
+            throw new UnsupportedOperationException("A date in a frozen DotNotationMap can't be changed");
+        }
+
+        @Override
+        @Deprecated
+        public void setYear(int year){
+            setTime(0);
+        }
+
+        @Override
+        @Deprecated
+        public void setMonth(int month){
+            setTime(0);
+        }
+
+        @Override
+        @Deprecated
+        public void setDate(int date){
+            setTime(0);
+        }
+
+        @Override
+        @Deprecated
+        public void setHours(int hours){
+            setTime(0);
+        }
+
+        @Override
+        @Deprecated
+        public void setMinutes(int minutes){
+            setTime(0);
+        }
+
+        @Override
+        @Deprecated
+        public void setSeconds(int seconds){
+            setTime(0);
+        }
+
+        @Override
+        public Object clone(){
+            return new Date(getTime());
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import java.io.IOException;
+
+/**
+ * A custom Deserializer used in Jackson2Json to read a FrozenDotNotationMap.
+ * The JSON is read into a DotNotationMap with {@link DotNotationTreeReader}
+ * and then frozen. A frozen map can't be filled, so there is no version that
+ * updates an existing one.
+ * 
+ * @author kevin.off
+ */
+public class FrozenDotNotationMapDeserializer extends StdDeserializer<FrozenDotNotationMap>{
+
+    public FrozenDotNotationMapDeserializer(){
+        super(FrozenDotNotationMap.class);
+    }
+
+    /**
+     * Builds a new FrozenDotNotationMap from the current JSON value
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @return The new FrozenDotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public FrozenDotNotationMap deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return DotNotationTreeReader.readMap(p, ctxt, new DotNotationMap()).freeze();
+    }
+
+}
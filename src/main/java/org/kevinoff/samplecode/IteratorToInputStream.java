@@ -5,14 +5,26 @@
  */
 package org.kevinoff.samplecode;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 /**
  * Class used to convert an Iterator or strings to an input stream. 
  * <p>
  * During the conversion it is also possible to supply a prefix, suffix, and
  * a separator string.
+ * <p>
+ * Each element is encoded as UTF-8, together with the separator or suffix
+ * that follows it, into one buffer that is reused for the whole stream.
+ * The bulk read and transferTo methods copy straight out of that buffer.
  * 
  * @author kevin.off
  */
@@ -29,6 +41,14 @@ public class IteratorToInputStream extends InputStream {
         protected boolean quotedStrings = false;
         protected boolean isJsonProducer = false;
         
+        private boolean started = false;
+        private boolean finished = false;
+        private boolean empty = true;
+        private byte[] separatorBytes;
+        private byte[] suffixBytes;
+        private ElementBuffer out = null;
+        private JsonGenerator generator = null;
+        
         /**
          * Creates an instance capable of converting the iterator into a Stream containing
          * a valid JSON array of the elements in the iterator
@@ -50,6 +70,30 @@ public class IteratorToInputStream extends InputStream {
             return stream;
         }
         
+        /**
+         * Creates an instance capable of converting the iterator into a Stream
+         * of JSON Lines (NDJSON), with each string on its own line. The strings
+         * have to be compact JSON with no line breaks in them.
+         * 
+         * @param strings The iterator to convert
+         * @return The input stream
+         */
+        public static IteratorToInputStream jsonObjectIteratorToJsonLinesInputStream(Iterator<String> strings){
+            return new IteratorToInputStream(strings, "", "\n", "\n", false);
+        }
+        
+        /**
+         * Creates an instance capable of converting the iterator into a Stream
+         * of JSON Lines (NDJSON), with each object written as compact JSON on
+         * its own line. An empty iterator gives an empty stream.
+         * 
+         * @param objects The iterator to convert
+         * @return The input stream
+         */
+        public static IteratorToInputStream jsonProducerIteratorToJsonLinesInputStream(Iterator<? extends JsonProducer> objects){
+            return new IteratorToInputStream(objects, "", "\n", "\n", false, true);
+        }
+        
         /**
          * Creates a new instance with all required fields. 
          * 
@@ -73,47 +117,155 @@ public class IteratorToInputStream extends InputStream {
             this.separator = separator;
             this.suffix = suffix;
             this.quotedStrings = quotedStrings;
-            this.isJsonProducer = true;
+            this.isJsonProducer = isJsonProducer;
+        }
+        
+        /**
+         * Wraps this stream in a PipelinedInputStream that pulls elements from
+         * the iterator and encodes them on a background thread while the caller
+         * reads. Don't read from this stream directly after calling this.
+         * 
+         * @return The pipelined stream
+         */
+        public PipelinedInputStream pipelined(){
+            return new PipelinedInputStream(this);
+        }
+        
+        /**
+         * Wraps this stream in a PipelinedInputStream that pulls elements from
+         * the iterator and encodes them with a task on the executor while the
+         * caller reads. Don't read from this stream directly after calling this.
+         * 
+         * @param executor The executor to run the producer on
+         * @return The pipelined stream
+         */
+        public PipelinedInputStream pipelined(Executor executor){
+            return new PipelinedInputStream(this, executor);
         }
         
         @Override
         public int read() {
-            reloadIfNeeded();
-            return (pos < count) ? (buf[pos++] & 0xff) : -1;
+            if (pos >= count && !reload()){
+                return -1;
+            }
+            return buf[pos++] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (off < 0 || len < 0 || len > b.length - off){
+                throw new IndexOutOfBoundsException();
+            }else if (len == 0){
+                return 0;
+            }
+            int read = 0;
+            while (read < len){
+                if (pos >= count && !reload()){
+                    break;
+                }
+                int n = Math.min(count - pos, len - read);
+                System.arraycopy(buf, pos, b, off + read, n);
+                pos += n;
+                read += n;
+            }
+            return (read == 0) ? -1 : read;
         }
         
         /**
-         * Checks to see if we are out of bytes to read on the current item
-         * gathered from the iterator. 
-         * If we are out of bytes then the next item is loaded into the buffer.
+         * Gets the number of bytes that are already encoded and can be read
+         * without pulling another element from the iterator.
+         * 
+         * @return The number of buffered bytes
+         */
+        @Override
+        public int available() {
+            return count - pos;
+        }
+        
+        /**
+         * Writes everything that is left in the stream to the output stream.
+         * The bytes are written straight from the internal buffer, one element
+         * at a time.
+         * 
+         * @param target The stream to write to. It is not closed
+         * @return The number of bytes written
+         * @throws IOException If the output stream can't be written to
          */
-        private void reloadIfNeeded(){
-            StringBuilder tmp;
-            if (buf == null && prefix != null && !prefix.isEmpty()){
-                initBuffer(prefix);
-            }else if (pos >= count){
+        public long transferTo(OutputStream target) throws IOException {
+            long transferred = 0;
+            while (pos < count || reload()){
+                int n = count - pos;
+                target.write(buf, pos, n);
+                pos = count;
+                transferred += n;
+            }
+            return transferred;
+        }
+        
+        /**
+         * Encodes the next chunk of the stream into the buffer: the prefix with
+         * the first element, or the next element, each followed by the separator,
+         * or by the suffix when the iterator is out of elements.
+         * 
+         * @return False if the stream is finished
+         */
+        private boolean reload(){
+            do {
+                if (finished){
+                    return false;
+                }
+                if (!started){
+                    started = true;
+                    out = new ElementBuffer();
+                    separatorBytes = bytes(separator);
+                    suffixBytes = bytes(suffix);
+                    out.write(bytes(prefix));
+                }else{
+                    out.reset();
+                }
                 if (iterator.hasNext()){
-                    if (quotedStrings){
-                        tmp = new StringBuilder("\"" + getNext(this.iterator) + "\"");
-                    }else{
-                        if (isJsonProducer){
-                            try{
-                                tmp =  new StringBuilder(((JsonProducer)getNext(iterator)).toJson());
-                            }catch(Exception ex){
-                                throw new IllegalArgumentException("Problem converting object to JSON", ex);
-                            }
-                        }else{
-                            tmp = new StringBuilder((String)getNext(iterator));
-                        }
-                        
+                    writeElement(getNext(iterator));
+                    empty = false;
+                }
+                if (iterator.hasNext()){
+                    out.write(separatorBytes);
+                }else{
+                    //With no prefix there is nothing for the suffix to close
+                    if (!empty || (prefix != null && !prefix.isEmpty())){
+                        out.write(suffixBytes);
                     }
-                    if (iterator.hasNext()){
-                        tmp.append(this.separator);
-                    }else{
-                        tmp.append(this.suffix);
+                    finished = true;
+                }
+                buf = out.buffer();
+                count = out.size();
+                pos = 0;
+            } while (count == 0);
+            return true;
+        }
+        
+        /**
+         * Encodes one element from the iterator into the buffer
+         * 
+         * @param element The element
+         */
+        private void writeElement(Object element){
+            if (quotedStrings){
+                out.write('"');
+                out.writeUtf8(String.valueOf(element));
+                out.write('"');
+            }else if (isJsonProducer){
+                try{
+                    if (generator == null){
+                        generator = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper().createGeneratorWithoutClosing(out);
+                        generator.setRootValueSeparator(null);
                     }
-                    initBuffer(tmp.toString());
+                    ((JsonProducer)element).writeJson(generator);
+                    generator.flush();
+                }catch(Exception ex){
+                    throw new IllegalArgumentException("Problem converting object to JSON", ex);
                 }
+            }else{
+                out.writeUtf8((String)element);
             }
         }
 
@@ -121,15 +273,114 @@ public class IteratorToInputStream extends InputStream {
             return it.next();
         }
         
+        private static byte[] bytes(String s){
+            return (s == null) ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        }
+        
         /**
-         * Initialize the byte buffer to read from.
-         * 
-         * @param s The string to initialize the buffer with
+         * A growable byte buffer that encodes strings as UTF-8 directly into
+         * its array, and whose array can be read from directly.
          */
-        private void initBuffer(String s){
-            buf = s.getBytes();
-            count = buf.length;
-            pos = 0;
+        private static class ElementBuffer extends ByteArrayOutputStream {
+            
+            private ElementBuffer(){
+                super(8192);
+            }
+            
+            private byte[] buffer(){
+                return buf;
+            }
+            
+            @Override
+            public void write(int b){
+                if (count == buf.length){
+                    grow(1);
+                }
+                buf[count++] = (byte)b;
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len){
+                if (len > buf.length - count){
+                    grow(len);
+                }
+                System.arraycopy(b, off, buf, count, len);
+                count += len;
+            }
+            
+            @Override
+            public void write(byte[] b){
+                write(b, 0, b.length);
+            }
+            
+            @Override
+            public void reset(){
+                count = 0;
+            }
+            
+            private void grow(int needed){
+                long size = Math.max((long)buf.length * 2, (long)count + needed);
+                if (size > Integer.MAX_VALUE - 8){
+                    if ((long)count + needed > Integer.MAX_VALUE - 8){
+                        throw new OutOfMemoryError("Element is too large to buffer");
+                    }
+                    size = Integer.MAX_VALUE - 8;
+                }
+                buf = Arrays.copyOf(buf, (int)size);
+            }
+            
+            /**
+             * Encodes the string as UTF-8. Unpaired surrogates are written as '?'
+             * the same way String.getBytes does.
+             * 
+             * @param s The string to encode
+             */
+            private void writeUtf8(String s){
+                int len = s.length();
+                if (len > (Integer.MAX_VALUE - 8 - count) / 3){
+                    write(s.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                if (len * 3 > buf.length - count){
+                    grow(len * 3);
+                }
+                byte[] b = buf;
+                int c = count;
+                int i = 0;
+                //Most JSON is ASCII so copy that without any other checks first
+                while (i < len){
+                    char ch = s.charAt(i);
+                    if (ch >= 0x80){
+                        break;
+                    }
+                    b[c++] = (byte)ch;
+                    i++;
+                }
+                for (; i < len; i++){
+                    char ch = s.charAt(i);
+                    if (ch < 0x80){
+                        b[c++] = (byte)ch;
+                    }else if (ch < 0x800){
+                        b[c++] = (byte)(0xc0 | (ch >> 6));
+                        b[c++] = (byte)(0x80 | (ch & 0x3f));
+                    }else if (Character.isSurrogate(ch)){
+                        if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))){
+                            int cp = Character.toCodePoint(ch, s.charAt(++i));
+                            b[c++] = (byte)(0xf0 | (cp >> 18));
+                            b[c++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                            b[c++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                            b[c++] = (byte)(0x80 | (cp & 0x3f));
+                        }else{
+                            b[c++] = '?';
+                        }
+                    }else{
+                        b[c++] = (byte)(0xe0 | (ch >> 12));
+                        b[c++] = (byte)(0x80 | ((ch >> 6) & 0x3f));
+                        b[c++] = (byte)(0x80 | (ch & 0x3f));
+                    }
+                }
+                count = c;
+            }
         }
         
     }
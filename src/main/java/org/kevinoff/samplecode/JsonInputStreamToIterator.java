@@ -9,10 +9,18 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import org.apache.commons.io.IOUtils;
 
 /**
@@ -26,13 +34,152 @@ public class JsonInputStreamToIterator<T> implements CloseableIterator<T>{
     
     NgitwsObjectMapper mapper;
     JsonParser parser;
+    private ObjectReader reader = null;
+    private Object updated = null;
+    private ObjectReader updatingReader = null;
     
     JsonToken currentToken;
     
+    private PathTrie projection = null;
+    private DeserializationContext context = null;
+    private RecordFilter.Matcher filter = null;
+    private TokenBuffer pending = null;
+    
+    private DotPath arrayPath = null;
+    private DotNotationMap envelope = null;
+    private DotNotationMap[] envelopeLevels = null;
+    private boolean recordsFound = false;
+    private boolean envelopeComplete = true;
+    
     public static <T> JsonInputStreamToIterator<T> makeIterator(InputStream is, Class<T> clazz) throws IOException, JsonParseException{
         return new JsonInputStreamToIterator<>(is, clazz).initializeJsonStream();
     }
     
+    /**
+     * Creates an iterator over an array nested inside the JSON document, such
+     * as "data.items" in {"meta":{...},"data":{"items":[...]}}.
+     * <p>
+     * Everything before the array is skipped without being built, and the
+     * stream is closed once the end of the array is reached.
+     * 
+     * @param <T> The type of the records
+     * @param is The stream containing the JSON document
+     * @param clazz The class to deserialize the records into
+     * @param arrayPath The dot notation path to the array to iterate. Numeric segments select array elements
+     * @return The iterator
+     * @throws IOException If the stream can't be read
+     * @throws JsonParseException If the stream is not JSON
+     */
+    public static <T> JsonInputStreamToIterator<T> makeIterator(InputStream is, Class<T> clazz, String arrayPath) throws IOException, JsonParseException{
+        return makeIterator(is, clazz, arrayPath, false);
+    }
+    
+    /**
+     * Creates an iterator over an array nested inside the JSON document, and
+     * optionally keeps the rest of the document as the envelope.
+     * <p>
+     * The envelope holds every field of the objects along the path except the
+     * array itself. A value on the path that turns out not to be an object,
+     * or an array at the end of it, is kept like any other field. Fields that
+     * come before the array are available from
+     * {@link #getEnvelope()} right away, fields that come after it once hasNext
+     * has returned false. Nothing inside an array along the path is kept, so
+     * below a numeric segment only the records themselves are read. Only one record is in memory at a
+     * time however large the array is, so the envelope should be the small part
+     * of the document.
+     * 
+     * @param <T> The type of the records
+     * @param is The stream containing the JSON document
+     * @param clazz The class to deserialize the records into
+     * @param arrayPath The dot notation path to the array to iterate
+     * @param captureEnvelope True to keep the fields around the array
+     * @return The iterator
+     * @throws IOException If the stream can't be read
+     * @throws JsonParseException If the stream is not JSON
+     */
+    public static <T> JsonInputStreamToIterator<T> makeIterator(InputStream is, Class<T> clazz, String arrayPath, boolean captureEnvelope) throws IOException, JsonParseException{
+        JsonInputStreamToIterator<T> iterator = new JsonInputStreamToIterator<>(is, clazz);
+        iterator.arrayPath = DotPath.of(arrayPath);
+        if (captureEnvelope){
+            iterator.envelope = new DotNotationMap();
+        }
+        return iterator.initializeJsonStream();
+    }
+    
+    /**
+     * Creates an iterator that builds each record with only the given paths.
+     * <p>
+     * Fields and array elements that no path goes through are skipped in the
+     * stream without building anything for them. Array elements keep their
+     * index, so selecting "features.2" gives a list with two nulls before it.
+     * 
+     * @param is The stream containing a JSON array of objects
+     * @param paths The dot notation paths to keep, e.g. "make", "engine.hp", "features.0"
+     * @return The iterator
+     * @throws IOException If the stream can't be read
+     * @throws JsonParseException If the stream is not JSON
+     */
+    public static JsonInputStreamToIterator<DotNotationMap> makeProjectedIterator(InputStream is, Collection<String> paths) throws IOException, JsonParseException{
+        return makeProjectedIterator(is, null, paths);
+    }
+    
+    /**
+     * Creates an iterator that only returns the records that match the filter,
+     * built with only the given paths. The paths used by the filter don't
+     * have to be among them.
+     * 
+     * @param is The stream containing a JSON array of objects
+     * @param filter The conditions a record has to meet, or null for every record
+     * @param paths The dot notation paths to keep
+     * @return The iterator
+     * @throws IOException If the stream can't be read
+     * @throws JsonParseException If the stream is not JSON
+     * @see #makeProjectedIterator(InputStream, Collection) 
+     * @see #makeFilteredIterator(InputStream, Class, RecordFilter) 
+     */
+    public static JsonInputStreamToIterator<DotNotationMap> makeProjectedIterator(InputStream is, RecordFilter filter, Collection<String> paths) throws IOException, JsonParseException{
+        JsonInputStreamToIterator<DotNotationMap> iterator = new JsonInputStreamToIterator<>(is, DotNotationMap.class);
+        iterator.projection = PathTrie.of(paths);
+        iterator.filter = (filter == null) ? null : filter.matcher();
+        return iterator.initializeJsonStream();
+    }
+    
+    /**
+     * Creates an iterator that only returns the records that match the filter.
+     * <p>
+     * The conditions are checked while each record is parsed and a record
+     * is skipped as soon as one of them fails, so records that don't match
+     * are never deserialized. hasNext reads ahead to the next record that
+     * matches.
+     * 
+     * @param <T> The type of the records
+     * @param is The stream containing a JSON array of objects
+     * @param clazz The class to deserialize matching records into
+     * @param filter The conditions a record has to meet
+     * @return The iterator
+     * @throws IOException If the stream can't be read
+     * @throws JsonParseException If the stream is not JSON
+     */
+    public static <T> JsonInputStreamToIterator<T> makeFilteredIterator(InputStream is, Class<T> clazz, RecordFilter filter) throws IOException, JsonParseException{
+        JsonInputStreamToIterator<T> iterator = new JsonInputStreamToIterator<>(is, clazz);
+        iterator.filter = (filter == null) ? null : filter.matcher();
+        return iterator.initializeJsonStream();
+    }
+    
+    /**
+     * Creates an iterator that builds each record with only the given paths.
+     * 
+     * @param is The stream containing a JSON array of objects
+     * @param paths The dot notation paths to keep
+     * @return The iterator
+     * @throws IOException If the stream can't be read
+     * @throws JsonParseException If the stream is not JSON
+     * @see #makeProjectedIterator(InputStream, Collection) 
+     */
+    public static JsonInputStreamToIterator<DotNotationMap> makeProjectedIterator(InputStream is, String... paths) throws IOException, JsonParseException{
+        return makeProjectedIterator(is, Arrays.asList(paths));
+    }
+    
     private JsonInputStreamToIterator(InputStream is, Class<T> clazz) {
         this.inputStream = is;
         this.clazz = clazz;
@@ -40,22 +187,82 @@ public class JsonInputStreamToIterator<T> implements CloseableIterator<T>{
 
     @Override
     public boolean hasNext() {
-        if (this.inputStream != null && currentToken != JsonToken.END_ARRAY && parser.hasCurrentToken()){
+        if (pending != null){
             return true;
-        }else{
-            IOUtils.closeQuietly(this.inputStream);
-            return false;
         }
+        while (this.inputStream != null && recordsFound && currentToken != JsonToken.END_ARRAY && parser.hasCurrentToken()){
+            if (filter == null){
+                return true;
+            }
+            try {
+                pending = filter.copyIfMatches(parser);
+                currentToken = parser.nextToken();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Problem reading the next record", ex);
+            }
+            if (pending != null){
+                return true;
+            }
+        }
+        if (!envelopeComplete && this.inputStream != null && parser.hasCurrentToken()){
+            try {
+                //Read whatever follows the array into the envelope
+                finishEnvelope(arrayPath.size() - 1);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Problem reading the end of the envelope", ex);
+            }
+        }
+        IOUtils.closeQuietly(this.inputStream);
+        return false;
+    }
+    
+    /**
+     * Gets the parts of the document around the array when the iterator was
+     * created with captureEnvelope. The fields that come after the array are
+     * only there once hasNext has returned false.
+     * 
+     * @return The envelope, or null if it isn't being captured
+     */
+    public DotNotationMap getEnvelope(){
+        return envelope;
     }
 
     @Override
     public T next() throws IOException, JsonProcessingException {
+        return next(null);
+    }
+    
+    /**
+     * Reads the next record into an existing object instead of allocating a
+     * new one. A Map or Collection is cleared before it is filled. Any other
+     * object is updated the way ObjectMapper.readerForUpdating does it, so
+     * properties missing from the record keep their old values.
+     * <p>
+     * The object that comes back is usually the one passed in, but a
+     * deserializer is allowed to return a different one, so always use the
+     * returned value.
+     * 
+     * @param reuse The object to fill, or null to allocate a new one
+     * @return The record
+     * @throws IOException If the record can't be read
+     */
+    public T next(T reuse) throws IOException, JsonProcessingException {
         
         T record;
         
+        if (filter != null){
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+            JsonParser buffered = pending.asParser();
+            pending = null;
+            buffered.nextToken();
+            return readRecord(buffered, reuse);
+        }
+        
         currentToken = parser.getCurrentToken();
       
-        record = (T)mapper.readValue(parser, clazz);
+        record = readRecord(parser, reuse);
 
         currentToken = parser.nextToken();
         
@@ -64,6 +271,59 @@ public class JsonInputStreamToIterator<T> implements CloseableIterator<T>{
         
         return record;
     }
+    
+    /**
+     * Reads up to n records and adds them to the list
+     * 
+     * @param n The most records to read
+     * @param into The list to add the records to
+     * @return How many records were added, which is less than n only when
+     * there are no more records
+     * @throws IOException If a record can't be read
+     */
+    public int nextBatch(int n, List<T> into) throws IOException, JsonProcessingException {
+        int count = 0;
+        while (count < n && hasNext()){
+            into.add(next(null));
+            count++;
+        }
+        return count;
+    }
+    
+    /**
+     * Reads the record at the current token of the parser
+     * 
+     * @param p The parser, positioned on the first token of the record
+     * @param reuse The object to fill, or null to allocate a new one
+     * @return The record
+     * @throws IOException If the record can't be read
+     */
+    private T readRecord(JsonParser p, T reuse) throws IOException {
+        if (reuse instanceof Map){
+            ((Map<?, ?>)reuse).clear();
+        }else if (reuse instanceof Collection){
+            ((Collection<?>)reuse).clear();
+        }
+        if (projection == null){
+            if (reader == null){
+                reader = mapper.cachedReaderFor(clazz);
+            }
+            if (reuse == null){
+                return reader.readValue(p);
+            }
+            //Callers pass the same object every time, so keep its reader instead of building one per record
+            if (reuse != updated){
+                updatingReader = reader.withValueToUpdate(reuse);
+                updated = reuse;
+            }
+            return updatingReader.readValue(p);
+        }
+        if (context == null){
+            context = mapper.createDeserializationContext(parser);
+        }
+        DotNotationMap into = (reuse == null) ? new DotNotationMap() : (DotNotationMap)reuse;
+        return (T)DotNotationTreeReader.readProjectedMap(p, context, into, projection);
+    }
 
     @Override
     public void close() throws IOException {
@@ -76,6 +336,11 @@ public class JsonInputStreamToIterator<T> implements CloseableIterator<T>{
             mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
             parser = mapper.getFactory().createParser(this.inputStream);
             currentToken = parser.nextToken();
+            if (arrayPath != null){
+                findArray();
+                return this;
+            }
+            recordsFound = true;
             //Increment the parser to the first open object character {
             while(parser.hasCurrentToken() && (currentToken != JsonToken.START_OBJECT && currentToken != JsonToken.VALUE_STRING && currentToken != JsonToken.VALUE_NUMBER_INT &&
                     currentToken != JsonToken.VALUE_NUMBER_FLOAT && currentToken != JsonToken.VALUE_TRUE && currentToken != JsonToken.VALUE_FALSE && 
@@ -86,6 +351,122 @@ public class JsonInputStreamToIterator<T> implements CloseableIterator<T>{
         return this;
     }
 
+    /**
+     * Moves the parser to the first element of the array at arrayPath,
+     * capturing the envelope fields on the way when that is turned on. If the
+     * path isn't in the document the rest of it is read and there are no records.
+     * 
+     * @throws IOException If the stream can't be read
+     */
+    private void findArray() throws IOException {
+        envelopeLevels = new DotNotationMap[arrayPath.size()];
+        envelopeComplete = (envelope == null);
+        DotNotationMap container = envelope;
+        //The captured map the current value goes in, and its key there
+        DotNotationMap holder = null;
+        String holderKey = null;
+        for (int level = 0; level < arrayPath.size(); level++){
+            JsonToken t = parser.currentToken();
+            String segment = arrayPath.segment(level);
+            if (t == JsonToken.START_OBJECT){
+                if (holder != null){
+                    container = new DotNotationMap();
+                    holder.setProperty(holderKey, container);
+                }
+                envelopeLevels[level] = container;
+                boolean found = false;
+                while (parser.nextToken() == JsonToken.FIELD_NAME){
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if (name.equals(segment)){
+                        found = true;
+                        break;
+                    }
+                    readEnvelopeField(container, name);
+                }
+                if (!found){
+                    //At the end of the object on this level
+                    finishEnvelope(level - 1);
+                    return;
+                }
+                holder = container;
+                holderKey = segment;
+                container = null;
+            }else if (t == JsonToken.START_ARRAY && arrayPath.index(level) >= 0){
+                int index = arrayPath.index(level);
+                for (int i = 0; ; i++){
+                    if (parser.nextToken() == JsonToken.END_ARRAY){
+                        finishEnvelope(level - 1);
+                        return;
+                    }else if (i == index){
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+                container = null;
+                holder = null;
+            }else{
+                //The path goes through something that doesn't have the next segment
+                readEnvelopeField(holder, holderKey);
+                finishEnvelope(level - 1);
+                return;
+            }
+        }
+        if (parser.currentToken() != JsonToken.START_ARRAY){
+            readEnvelopeField(holder, holderKey);
+            finishEnvelope(arrayPath.size() - 1);
+            return;
+        }
+        recordsFound = true;
+        currentToken = parser.nextToken();
+    }
+    
+    /**
+     * Reads the rest of the document from inside the given level of the path
+     * outwards, keeping the fields of the levels that are captured. Does
+     * nothing when the envelope isn't captured. The parser
+     * has to be on the last token of a value that is directly inside that level.
+     * 
+     * @param level The level of the path to continue from
+     * @throws IOException If the stream can't be read
+     */
+    private void finishEnvelope(int level) throws IOException {
+        if (envelope == null){
+            //Nothing after the array is needed
+            envelopeComplete = true;
+            return;
+        }
+        for (int l = level; l >= 0; l--){
+            if (parser.getParsingContext().inArray()){
+                while (parser.nextToken() != JsonToken.END_ARRAY){
+                    parser.skipChildren();
+                }
+            }else{
+                while (parser.nextToken() == JsonToken.FIELD_NAME){
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    readEnvelopeField(envelopeLevels[l], name);
+                }
+            }
+        }
+        envelopeComplete = true;
+    }
+    
+    /**
+     * Reads the value at the current token into the envelope, or skips it when
+     * the level isn't captured
+     */
+    private void readEnvelopeField(DotNotationMap container, String name) throws IOException {
+        if (container == null){
+            parser.skipChildren();
+            return;
+        }
+        if (context == null){
+            context = mapper.createDeserializationContext(parser);
+        }
+        DotNotationTreeReader.readField(parser, context, container, name);
+    }
+    
     @Override
     public List<T> toList() throws JsonProcessingException, IOException {
         List<T> list = new ArrayList<>();
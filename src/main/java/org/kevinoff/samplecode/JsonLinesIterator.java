@@ -0,0 +1,103 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Iterates a stream of JSON Lines (NDJSON), where each line holds one JSON
+ * value. Blank lines are skipped.
+ * <p>
+ * The lines are found with a plain scan for '\n' and each one is bound on its
+ * own, so there is no array state to track and a bad line fails without the
+ * lines around it being involved. Use
+ * {@link ParallelJsonRecordIterator#makeJsonLinesIterator(InputStream, Class)}
+ * to bind the lines on several threads instead.
+ *
+ * @author kevin.off
+ * @param <T> The type of object that next returns
+ */
+public class JsonLinesIterator<T> implements CloseableIterator<T> {
+
+    private final InputStream inputStream;
+    private final JsonRecordScanner scanner;
+    private final ObjectReader reader;
+    private byte[] line = null;
+    private boolean finished = false;
+
+    /**
+     * Creates an iterator that binds each line into the class
+     *
+     * @param <T> The type of the records
+     * @param is The stream containing one JSON value per line
+     * @param clazz The class to deserialize the records into
+     * @return The iterator
+     */
+    public static <T> JsonLinesIterator<T> makeIterator(InputStream is, Class<T> clazz){
+        return new JsonLinesIterator<>(is, clazz);
+    }
+
+    private JsonLinesIterator(InputStream is, Class<T> clazz){
+        this.inputStream = is;
+        this.scanner = JsonRecordScanner.forLines(is);
+        this.reader = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper().cachedReaderFor(clazz);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (line != null){
+            return true;
+        }
+        if (finished){
+            return false;
+        }
+        try {
+            line = scanner.nextRecord();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Problem reading the next line", ex);
+        }
+        if (line == null){
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() throws IOException, JsonProcessingException {
+        if (!hasNext()){
+            throw new NoSuchElementException();
+        }
+        byte[] record = line;
+        line = null;
+        return reader.readValue(record);
+    }
+
+    @Override
+    public List<T> toList() throws IOException, JsonProcessingException {
+        List<T> list = new ArrayList<>();
+        while(hasNext()){
+            list.add(next());
+        }
+        return list;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        line = null;
+        IOUtils.closeQuietly(this.inputStream);
+    }
+
+}
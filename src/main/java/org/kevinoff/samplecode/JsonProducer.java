@@ -5,10 +5,49 @@
  */
 package org.kevinoff.samplecode;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 /**
+ * An object that can write itself as JSON.
+ * <p>
+ * The writeJson methods stream the JSON to a sink. By default they fall back
+ * to toJson(), implementations that can write directly should override them.
  *
  * @author kevin.off
  */
 public interface JsonProducer {
     public String toJson() throws Exception;
+    
+    /**
+     * Writes the JSON as the next value of the generator.
+     * 
+     * @param generator The generator to write to
+     * @throws Exception If the JSON can't be produced or written
+     */
+    public default void writeJson(JsonGenerator generator) throws Exception {
+        generator.writeRawValue(toJson());
+    }
+    
+    /**
+     * Writes the JSON to the stream as UTF-8. The stream is not closed.
+     * 
+     * @param out The stream to write to
+     * @throws Exception If the JSON can't be produced or written
+     */
+    public default void writeJson(OutputStream out) throws Exception {
+        out.write(toJson().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Writes the JSON to the writer. The writer is not closed.
+     * 
+     * @param writer The writer to write to
+     * @throws Exception If the JSON can't be produced or written
+     */
+    public default void writeJson(Writer writer) throws Exception {
+        writer.write(toJson());
+    }
 }
@@ -0,0 +1,210 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Parses a JSON array, or a sequence of JSON values, from chunks of bytes that
+ * are pushed to it as they arrive, and hands each record to a callback as soon
+ * as its last byte has been fed.
+ * <p>
+ * This is the non-blocking counterpart of {@link JsonInputStreamToIterator}.
+ * Nothing waits for input, so one thread, such as a selector loop or the
+ * completion handler of an async channel, can feed any number of these. A
+ * record that is split across chunks is carried over in the parser until the
+ * rest of it arrives. The callback runs on the thread that calls feed. To hand
+ * the records to other threads pass a queue's add or offer method as the
+ * callback.
+ * <pre>
+ * JsonRecordPushParser&lt;DotNotationMap&gt; parser = JsonRecordPushParser.makeParser(DotNotationMap.class, queue::add);
+ * //For every chunk that arrives
+ * parser.feed(bytes, 0, count);
+ * //When the source has ended
+ * parser.endOfInput();
+ * </pre>
+ * Instances are not thread safe. Feed each one from a single thread at a time.
+ *
+ * @author kevin.off
+ * @param <T> The type of the records
+ */
+public class JsonRecordPushParser<T> implements Closeable {
+
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+    private final ObjectReader reader;
+    private final Consumer<? super T> callback;
+
+    private byte[] scratch = null;
+    private TokenBuffer record = null;
+    private int depth = 0;
+    /**
+     * The depth the records are at: 1 inside a root array, 0 in a sequence,
+     * -1 until the first token has been seen
+     */
+    private int recordDepth = -1;
+    private long recordCount = 0;
+    private boolean ended = false;
+
+    /**
+     * Creates a parser that binds each record into the class and passes it to
+     * the callback
+     *
+     * @param <T> The type of the records
+     * @param clazz The class to deserialize the records into
+     * @param callback What to do with each record
+     * @return The parser
+     * @throws IOException If the parser can't be created
+     */
+    public static <T> JsonRecordPushParser<T> makeParser(Class<T> clazz, Consumer<? super T> callback) throws IOException {
+        return new JsonRecordPushParser<>(clazz, callback);
+    }
+
+    private JsonRecordPushParser(Class<T> clazz, Consumer<? super T> callback) throws IOException {
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper();
+        this.parser = mapper.getFactory().createNonBlockingByteArrayParser();
+        this.feeder = (ByteArrayFeeder)parser.getNonBlockingInputFeeder();
+        this.reader = mapper.cachedReaderFor(clazz);
+        this.callback = callback;
+    }
+
+    /**
+     * Feeds the next chunk of the stream and passes every record it completes
+     * to the callback. The parser is done with the array when this returns.
+     *
+     * @param b The bytes
+     * @param off Where the chunk starts
+     * @param len How long the chunk is
+     * @throws IOException If the JSON is malformed or a record can't be bound
+     */
+    public void feed(byte[] b, int off, int len) throws IOException {
+        if (ended){
+            throw new IllegalStateException("Input has already ended");
+        }
+        if (len == 0){
+            return;
+        }
+        feeder.feedInput(b, off, off + len);
+        drain();
+    }
+
+    /**
+     * Feeds the remaining bytes of the buffer and passes every record they
+     * complete to the callback. The buffer's position is moved to its limit.
+     *
+     * @param buffer The bytes
+     * @throws IOException If the JSON is malformed or a record can't be bound
+     */
+    public void feed(ByteBuffer buffer) throws IOException {
+        int len = buffer.remaining();
+        if (buffer.hasArray()){
+            feed(buffer.array(), buffer.arrayOffset() + buffer.position(), len);
+            buffer.position(buffer.limit());
+            return;
+        }
+        //Jackson 2.11 can only be fed arrays, so direct buffers are copied
+        if (scratch == null || scratch.length < len){
+            scratch = new byte[Math.max(len, 8 * 1024)];
+        }
+        buffer.get(scratch, 0, len);
+        feed(scratch, 0, len);
+    }
+
+    /**
+     * Tells the parser the stream has ended and passes any record that was
+     * waiting on the end, such as a bare number, to the callback
+     *
+     * @throws IOException If the stream ended in the middle of a record
+     */
+    public void endOfInput() throws IOException {
+        if (ended){
+            return;
+        }
+        ended = true;
+        feeder.endOfInput();
+        drain();
+        if (depth != 0 || record != null){
+            throw new IOException("The stream ended in the middle of a record");
+        }
+    }
+
+    /**
+     * Gets how many records have been passed to the callback
+     *
+     * @return The number of records
+     */
+    public long getRecordCount(){
+        return recordCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ended = true;
+        record = null;
+        parser.close();
+    }
+
+    /**
+     * Reads tokens until the parser needs more input
+     */
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null){
+            if (recordDepth < 0){
+                recordDepth = (token == JsonToken.START_ARRAY) ? 1 : 0;
+            }
+            if (recordDepth == 1 && depth == 0){
+                //A root array starts, either the first or one after it
+                if (token != JsonToken.START_ARRAY){
+                    throw new JsonParseException(parser, "Expected only arrays at the root of the stream but found " + token);
+                }
+                depth = 1;
+                continue;
+            }
+            if (token.isStructStart()){
+                depth++;
+            }else if (token.isStructEnd()){
+                depth--;
+            }
+            if (depth < recordDepth){
+                //The end of the root array
+                continue;
+            }
+            if (record == null){
+                record = new TokenBuffer(parser);
+            }
+            record.copyCurrentEvent(parser);
+            if (depth == recordDepth){
+                emit();
+            }
+        }
+    }
+    
+    /**
+     * Binds the buffered record and passes it to the callback
+     */
+    private void emit() throws IOException {
+        TokenBuffer tokens = record;
+        record = null;
+        T value;
+        try (JsonParser buffered = tokens.asParser(parser)){
+            buffered.nextToken();
+            value = reader.readValue(buffered);
+        }
+        recordCount++;
+        callback.accept(value);
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Finds the boundaries of the records in a stream of JSON without parsing it.
+ * <p>
+ * If the stream starts with '[' the records are the elements of that array.
+ * Otherwise the records are the values at the top level of the stream,
+ * separated by whitespace or commas. The scanner only tracks the nesting depth
+ * and whether it is inside a string, so it runs much faster than a parser and
+ * the raw bytes of each record can be handed to other threads to be bound.
+ * <p>
+ * A scanner made with {@link #forLines(InputStream)} reads JSON Lines (NDJSON)
+ * instead, where each non-blank line is a record and the boundaries are found
+ * by looking for the next newline.
+ * <p>
+ * The scanner does not validate the JSON. A malformed record is returned as it
+ * is and fails when it is bound. A record that the stream ends in the middle
+ * of is returned as far as it goes.
+ *
+ * @author kevin.off
+ */
+final class JsonRecordScanner {
+
+    private static final int UNKNOWN = 0;
+    private static final int ARRAY = 1;
+    private static final int SEQUENCE = 2;
+    private static final int LINES = 3;
+
+    private final InputStream in;
+    private byte[] buf;
+    private int pos = 0;
+    private int limit = 0;
+    private int start = 0;
+    private int end = 0;
+    private boolean eof = false;
+    private boolean finished = false;
+    private int mode;
+
+    /**
+     * Creates a scanner that detects whether the stream is an array or a
+     * sequence of values
+     *
+     * @param in The stream to scan
+     */
+    JsonRecordScanner(InputStream in){
+        this(in, UNKNOWN);
+    }
+
+    private JsonRecordScanner(InputStream in, int mode){
+        this.in = in;
+        this.mode = mode;
+        this.buf = new byte[64 * 1024];
+    }
+
+    /**
+     * Creates a scanner for a piece of an array or a sequence that starts at a
+     * record, so a leading '[' is taken as the start of a record.
+     *
+     * @param in The stream to scan
+     * @return The scanner
+     */
+    static JsonRecordScanner forSequence(InputStream in){
+        return new JsonRecordScanner(in, SEQUENCE);
+    }
+
+    /**
+     * Creates a scanner for JSON Lines, where each line is a record
+     *
+     * @param in The stream to scan
+     * @return The scanner
+     */
+    static JsonRecordScanner forLines(InputStream in){
+        return new JsonRecordScanner(in, LINES);
+    }
+
+    /**
+     * Gets the bytes of the next record
+     *
+     * @return A copy of the record's bytes, or null if there are no more records
+     * @throws IOException If the stream can't be read
+     */
+    byte[] nextRecord() throws IOException {
+        return scan() ? Arrays.copyOfRange(buf, start, end) : null;
+    }
+
+    /**
+     * Finds the next record and sets start and end around it
+     *
+     * @return False if there are no more records
+     */
+    private boolean scan() throws IOException {
+        if (finished){
+            return false;
+        }
+        //Skip whatever is between the records
+        for (;;){
+            if (pos >= limit && !more(pos)){
+                finished = true;
+                return false;
+            }
+            byte c = buf[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || (c == ',' && mode != LINES)){
+                pos++;
+            }else if (mode == UNKNOWN){
+                if (c == '['){
+                    pos++;
+                    mode = ARRAY;
+                }else{
+                    mode = SEQUENCE;
+                }
+            }else if (mode == ARRAY && c == ']'){
+                pos++;
+                finished = true;
+                return false;
+            }else{
+                break;
+            }
+        }
+        start = pos;
+        if (mode == LINES){
+            scanLine();
+            end = pos;
+            return true;
+        }
+        byte first = buf[pos];
+        if (first == '{' || first == '['){
+            scanContainer();
+        }else if (first == '"'){
+            pos++;
+            scanString();
+        }else{
+            scanScalar();
+        }
+        end = pos;
+        return true;
+    }
+
+    /**
+     * Moves past an object or array, leaving pos after its closing character
+     */
+    private void scanContainer() throws IOException {
+        int depth = 0;
+        for (;;){
+            if (pos >= limit && !more(start)){
+                return;
+            }
+            byte[] b = buf;
+            int p = pos;
+            int l = limit;
+            while (p < l){
+                byte c = b[p++];
+                if (c == '"'){
+                    pos = p;
+                    scanString();
+                    p = pos;
+                    b = buf;
+                    l = limit;
+                }else if (c == '{' || c == '['){
+                    depth++;
+                }else if (c == '}' || c == ']'){
+                    if (--depth == 0){
+                        pos = p;
+                        return;
+                    }
+                }
+            }
+            pos = p;
+        }
+    }
+
+    /**
+     * Moves past the rest of a string, leaving pos after the closing quote
+     */
+    private void scanString() throws IOException {
+        boolean escaped = false;
+        for (;;){
+            if (pos >= limit && !more(start)){
+                return;
+            }
+            byte[] b = buf;
+            int p = pos;
+            int l = limit;
+            while (p < l){
+                byte c = b[p++];
+                if (escaped){
+                    escaped = false;
+                }else if (c == '\\'){
+                    escaped = true;
+                }else if (c == '"'){
+                    pos = p;
+                    return;
+                }
+            }
+            pos = p;
+        }
+    }
+
+    /**
+     * Moves to the end of the line, leaving pos on the newline
+     */
+    private void scanLine() throws IOException {
+        for (;;){
+            if (pos >= limit && !more(start)){
+                return;
+            }
+            byte[] b = buf;
+            int p = pos;
+            int l = limit;
+            while (p < l && b[p] != '\n'){
+                p++;
+            }
+            pos = p;
+            if (p < l){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves past a number, true, false or null
+     */
+    private void scanScalar() throws IOException {
+        for (;;){
+            if (pos >= limit && !more(start)){
+                return;
+            }
+            byte c = buf[pos];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',' || c == ']' || c == '}'){
+                return;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Reads more of the stream, dropping everything before keepFrom
+     *
+     * @param keepFrom The first byte that is still needed
+     * @return False if the stream has ended
+     */
+    private boolean more(int keepFrom) throws IOException {
+        if (eof){
+            return false;
+        }
+        if (keepFrom > 0){
+            System.arraycopy(buf, keepFrom, buf, 0, limit - keepFrom);
+            limit -= keepFrom;
+            pos -= keepFrom;
+            start -= Math.min(start, keepFrom);
+            end = 0;
+        }
+        if (limit == buf.length){
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0){
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+}
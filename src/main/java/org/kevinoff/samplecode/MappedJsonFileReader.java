@@ -0,0 +1,588 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Reads the records of a JSON array file or a JSON Lines (NDJSON) file in
+ * parallel, straight from memory mapped regions of the file.
+ * <p>
+ * The file is split into chunks of about chunkSize bytes that each end on a
+ * record boundary, and each chunk is bound on its own thread by a parser that
+ * reads it straight from the mapping. In a JSON Lines file the boundaries are
+ * found by looking for the next newline, so splitting costs almost nothing.
+ * In a JSON array the boundaries are found by one sequential pass over the
+ * mapping that only tracks nesting and strings, which is much faster than
+ * parsing it. Nothing is copied out of the mapping except by the parsers.
+ * <p>
+ * The file is mapped in windows of 64 MB that are shared by the chunks in
+ * them and unmapped as soon as the last of those chunks is bound, so files
+ * larger than 2 GB work and only the windows in use are mapped at a time.
+ * <p>
+ * A file whose first non-whitespace character is '[' is read as an array,
+ * anything else as one JSON value per line.
+ * <pre>
+ * try (MappedJsonFileReader file = new MappedJsonFileReader(new File("dump.json"))){
+ *     file.forEach(DotNotationMap.class, record -&gt; process(record));
+ * }
+ * </pre>
+ * 
+ * @author kevin.off
+ */
+public class MappedJsonFileReader implements Closeable {
+    
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int NEWLINE_SEARCH_SIZE = 64 * 1024;
+    
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkSize;
+    private final boolean jsonArray;
+    
+    /**
+     * Opens the file with the default chunk size
+     * 
+     * @param file The file to read
+     * @throws IOException If the file can't be opened
+     */
+    public MappedJsonFileReader(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Opens the file
+     * 
+     * @param file The file to read
+     * @param chunkSize About how many bytes of the file each task binds
+     * @throws IOException If the file can't be opened
+     */
+    public MappedJsonFileReader(File file, int chunkSize) throws IOException {
+        if (chunkSize <= 0){
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        this.chunkSize = chunkSize;
+        this.jsonArray = startsWithArray();
+    }
+    
+    /**
+     * Checks if the file is read as a JSON array or as JSON Lines
+     * 
+     * @return True for a JSON array
+     */
+    public boolean isJsonArray(){
+        return jsonArray;
+    }
+    
+    /**
+     * Iterates the records in the order they are in the file, binding the
+     * chunks on the pool ParallelJsonRecordIterator shares, which has a
+     * thread for each processor
+     * 
+     * @param <T> The type of the records
+     * @param clazz The class to deserialize the records into
+     * @return The iterator. Closing it does not close this reader
+     */
+    public <T> CloseableIterator<T> iterator(Class<T> clazz){
+        int threads = Runtime.getRuntime().availableProcessors();
+        return new ParallelJsonRecordIterator<>(new ChunkBatches<>(clazz), ParallelJsonRecordIterator.sharedPool(), threads * 2);
+    }
+    
+    /**
+     * Iterates the records in the order they are in the file, binding the
+     * chunks on the given executor. The executor is not shut down when the
+     * iterator is closed.
+     * 
+     * @param <T> The type of the records
+     * @param clazz The class to deserialize the records into
+     * @param executor The executor to bind the chunks on
+     * @param chunksInFlight The most chunks to read ahead of the caller
+     * @return The iterator. Closing it does not close this reader
+     */
+    public <T> CloseableIterator<T> iterator(Class<T> clazz, ExecutorService executor, int chunksInFlight){
+        return new ParallelJsonRecordIterator<>(new ChunkBatches<>(clazz), executor, chunksInFlight);
+    }
+    
+    /**
+     * Binds every record and passes it to the action, on a pool with a thread
+     * for each processor. The records are passed in no particular order and
+     * from several threads at once.
+     * 
+     * @param <T> The type of the records
+     * @param clazz The class to deserialize the records into
+     * @param action What to do with each record. It has to be thread safe
+     * @throws IOException If the file can't be read or a record can't be bound
+     */
+    public <T> void forEach(Class<T> clazz, Consumer<? super T> action) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = ParallelJsonRecordIterator.newPool(threads);
+        try {
+            forEach(clazz, action, executor, threads * 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Binds every record and passes it to the action on the given executor.
+     * The records are passed in no particular order and from several threads
+     * at once. Returns once every record has been handled. If a chunk fails
+     * the chunks that haven't started are cancelled and the failure is thrown.
+     * 
+     * @param <T> The type of the records
+     * @param clazz The class to deserialize the records into
+     * @param action What to do with each record. It has to be thread safe
+     * @param executor The executor to run on
+     * @param chunksInFlight The most chunks to have submitted at once
+     * @throws IOException If the file can't be read or a record can't be bound
+     */
+    public <T> void forEach(Class<T> clazz, Consumer<? super T> action, ExecutorService executor, int chunksInFlight) throws IOException {
+        ObjectReader reader = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper().cachedReaderFor(clazz);
+        ArrayDeque<Future<?>> running = new ArrayDeque<>();
+        try (ChunkSplitter splitter = new ChunkSplitter()){
+            Chunk chunk;
+            while ((chunk = splitter.next()) != null){
+                if (running.size() >= Math.max(1, chunksInFlight)){
+                    ParallelJsonRecordIterator.await(running.poll());
+                }
+                Chunk toBind = chunk;
+                running.add(executor.submit(() -> {
+                    bind(toBind, reader, action);
+                    return null;
+                }));
+            }
+            while (!running.isEmpty()){
+                ParallelJsonRecordIterator.await(running.poll());
+            }
+        } finally {
+            for (Future<?> task : running){
+                task.cancel(false);
+            }
+        }
+    }
+    
+    /**
+     * Closes the file. Iterators that are still running fail on their next chunk.
+     * 
+     * @throws IOException If the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    private boolean startsWithArray() throws IOException {
+        if (size == 0){
+            return false;
+        }
+        Region region = map(0);
+        try {
+            ByteBuffer buffer = region.buffer;
+            int limit = Math.min(buffer.capacity(), NEWLINE_SEARCH_SIZE);
+            for (int i = 0; i < limit; i++){
+                byte c = buffer.get(i);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t'){
+                    return c == '[';
+                }
+            }
+            return false;
+        } finally {
+            region.release();
+        }
+    }
+    
+    /**
+     * Maps the window of the file that holds a position. Windows start on a
+     * multiple of WINDOW_SIZE and run a couple of chunks past the start of the
+     * next one, so a chunk that starts in a window nearly always ends in it.
+     * 
+     * @param position The position
+     * @return The window, used once by the caller
+     */
+    private Region map(long position) throws IOException {
+        long start = position - position % WINDOW_SIZE;
+        long length = Math.min(size - start, Math.min(Integer.MAX_VALUE, WINDOW_SIZE + 2L * chunkSize));
+        return new Region(start, channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+    }
+    
+    /**
+     * Binds the records in a chunk one at a time, straight from the mapped file
+     */
+    private <T> void bind(Chunk chunk, ObjectReader reader, Consumer<? super T> action) throws IOException {
+        Region region = chunk.region;
+        if (region == null){
+            region = new Region(chunk.start, channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start));
+        }
+        try (JsonParser p = reader.createParser(new RegionInputStream(region, chunk.start, chunk.end, chunk.array))){
+            if (chunk.array){
+                //The elements of the chunk are read as one array, so the commas between them are skipped by the parser
+                p.nextToken();
+            }
+            JsonToken t;
+            while ((t = p.nextToken()) != null && t != JsonToken.END_ARRAY){
+                action.accept(reader.readValue(p));
+            }
+        } finally {
+            region.release();
+        }
+    }
+    
+    /**
+     * A range of the file that starts and ends on record boundaries. The
+     * records of a JSON array chunk are separated by commas.
+     */
+    private static final class Chunk {
+        private final long start;
+        private final long end;
+        private final boolean array;
+        private final Region region;
+        
+        /**
+         * @param region The window the chunk is in, already used once for
+         * the chunk, or null to map the chunk on its own when it is bound
+         */
+        private Chunk(long start, long end, boolean array, Region region){
+            this.start = start;
+            this.end = end;
+            this.array = array;
+            this.region = region;
+        }
+    }
+    
+    /**
+     * Splits the file into chunks, in order. It reads the file a window at a
+     * time, straight from the mapping.
+     */
+    private final class ChunkSplitter implements Closeable {
+        private long position = 0;
+        private Region window = null;
+        private boolean started = false;
+        private boolean finished = false;
+        //Where the array scan is inside the current record
+        private int depth = 0;
+        private boolean inString = false;
+        private boolean escaped = false;
+        
+        private Chunk next() throws IOException {
+            return jsonArray ? nextArrayChunk() : nextLinesChunk();
+        }
+        
+        private Chunk nextLinesChunk() throws IOException {
+            if (position >= size){
+                return null;
+            }
+            long start = position;
+            long end = Math.min(start + chunkSize, size);
+            //Move the end past the next newline so no line is split
+            long p = end - 1;
+            while (end < size){
+                ByteBuffer buffer = window(p).buffer;
+                int i = (int)(p - window.start);
+                int limit = buffer.capacity();
+                while (i < limit && buffer.get(i) != '\n'){
+                    i++;
+                }
+                p = window.start + i;
+                end = (i < limit) ? p + 1 : p;
+                if (i < limit){
+                    break;
+                }
+            }
+            position = end;
+            return chunk(start, end, false);
+        }
+        
+        private Chunk nextArrayChunk() throws IOException {
+            if (!started){
+                started = true;
+                //Move past the opening bracket, which startsWithArray found
+                position = skipWhitespace(0, false) + 1;
+            }
+            if (finished){
+                return null;
+            }
+            long start = skipWhitespace(position, true);
+            if (start >= size || byteAt(start) == ']'){
+                finished = true;
+                return null;
+            }
+            long p = start;
+            while (p < size){
+                ByteBuffer buffer = window(p).buffer;
+                int i = (int)(p - window.start);
+                int limit = buffer.capacity();
+                for (; i < limit; i++){
+                    byte c = buffer.get(i);
+                    if (inString){
+                        if (escaped){
+                            escaped = false;
+                        }else if (c == '\\'){
+                            escaped = true;
+                        }else if (c == '"'){
+                            inString = false;
+                        }
+                    }else if (c == '"'){
+                        inString = true;
+                    }else if (c == '{' || c == '['){
+                        depth++;
+                    }else if (c == '}' || c == ']'){
+                        if (depth == 0){
+                            //The end of the array
+                            finished = true;
+                            return chunk(start, window.start + i, true);
+                        }
+                        depth--;
+                    }else if (c == ',' && depth == 0 && window.start + i - start >= chunkSize){
+                        position = window.start + i + 1;
+                        return chunk(start, window.start + i, true);
+                    }
+                }
+                p = window.start + i;
+            }
+            //The file ends inside the array, binding the chunk reports it
+            finished = true;
+            return chunk(start, size, true);
+        }
+        
+        /**
+         * Moves past whitespace, and commas if asked
+         * 
+         * @return The position of the first other byte, or the size of the file
+         */
+        private long skipWhitespace(long from, boolean commas) throws IOException {
+            long p = from;
+            while (p < size){
+                byte c = byteAt(p);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && (c != ',' || !commas)){
+                    break;
+                }
+                p++;
+            }
+            return p;
+        }
+        
+        private byte byteAt(long p) throws IOException {
+            Region region = window(p);
+            return region.buffer.get((int)(p - region.start));
+        }
+        
+        /**
+         * Gets the window the position is in, moving to the next one if needed
+         */
+        private Region window(long p) throws IOException {
+            if (window == null || !window.contains(p, p + 1)){
+                if (window != null){
+                    window.release();
+                }
+                window = null;
+                window = map(p);
+            }
+            return window;
+        }
+        
+        private Chunk chunk(long start, long end, boolean array) throws IOException {
+            if (end - start > Integer.MAX_VALUE){
+                throw new IOException("A record at position " + start + " is too large to bind");
+            }
+            if (window != null && window.contains(start, end)){
+                window.use();
+                return new Chunk(start, end, array, window);
+            }
+            return new Chunk(start, end, array, null);
+        }
+        
+        @Override
+        public void close() {
+            if (window != null){
+                window.release();
+                window = null;
+            }
+        }
+    }
+    
+    /**
+     * Chunks handed to a ParallelJsonRecordIterator as batches
+     */
+    private final class ChunkBatches<T> implements ParallelJsonRecordIterator.BatchSource<T> {
+        private final ObjectReader reader;
+        private final ChunkSplitter splitter = new ChunkSplitter();
+        
+        private ChunkBatches(Class<T> clazz){
+            this.reader = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper().cachedReaderFor(clazz);
+        }
+        
+        @Override
+        public Callable<List<T>> nextBatch() throws IOException {
+            Chunk chunk = splitter.next();
+            if (chunk == null){
+                return null;
+            }
+            return () -> {
+                List<T> records = new ArrayList<>();
+                try {
+                    MappedJsonFileReader.this.<T>bind(chunk, reader, records::add);
+                } catch (IOException | RuntimeException ex) {
+                    throw new ParallelJsonRecordIterator.PartialBatchException(records, ex);
+                }
+                return records;
+            };
+        }
+        
+        @Override
+        public void close() throws IOException {
+            splitter.close();
+        }
+    }
+    
+    /**
+     * A mapped region of the file, shared by the splitter and the chunks in
+     * it. It is unmapped as soon as the last of them is done with it instead
+     * of when the garbage collector gets to it, so only the regions that are
+     * being split or bound are mapped at any time. A chunk whose task is
+     * cancelled before it runs leaves its region to the garbage collector.
+     */
+    private static final class Region {
+        private final long start;
+        private final MappedByteBuffer buffer;
+        private int users = 1;
+        
+        private Region(long start, MappedByteBuffer buffer){
+            this.start = start;
+            this.buffer = buffer;
+        }
+        
+        private boolean contains(long from, long to){
+            return from >= start && to <= start + buffer.capacity();
+        }
+        
+        private synchronized void use(){
+            users++;
+        }
+        
+        private void release(){
+            boolean last;
+            synchronized (this){
+                last = --users == 0;
+            }
+            if (last){
+                UNMAPPER.accept(buffer);
+            }
+        }
+    }
+    
+    /**
+     * Reads a range of a region, optionally wrapped in square brackets
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private int prefix;
+        private int suffix;
+        
+        private RegionInputStream(Region region, long start, long end, boolean brackets){
+            this.buffer = region.buffer.duplicate();
+            buffer.limit((int)(end - region.start));
+            buffer.position((int)(start - region.start));
+            this.prefix = brackets ? 1 : 0;
+            this.suffix = brackets ? 1 : 0;
+        }
+        
+        @Override
+        public int read() {
+            if (prefix > 0){
+                prefix--;
+                return '[';
+            }else if (buffer.hasRemaining()){
+                return buffer.get() & 0xff;
+            }else if (suffix > 0){
+                suffix--;
+                return ']';
+            }
+            return -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0){
+                return 0;
+            }else if (prefix > 0 || !buffer.hasRemaining()){
+                int c = read();
+                if (c < 0){
+                    return -1;
+                }
+                b[off] = (byte)c;
+                return 1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+    
+    /**
+     * Unmaps a buffer right away, which the JDK has no public way to do. Uses
+     * Unsafe.invokeCleaner on Java 9 and later and the buffer's Cleaner on
+     * Java 8, and does nothing if neither is there.
+     */
+    private static final Consumer<MappedByteBuffer> UNMAPPER = unmapper();
+    
+    private static Consumer<MappedByteBuffer> unmapper(){
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (ReflectiveOperationException ex) {
+                    //Left to the garbage collector
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            //Not Java 9 or later
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                try {
+                    Object c = cleaner.invoke(buffer);
+                    if (c != null){
+                        clean.invoke(c);
+                    }
+                } catch (ReflectiveOperationException ex) {
+                    //Left to the garbage collector
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return buffer -> {};
+        }
+    }
+    
+}
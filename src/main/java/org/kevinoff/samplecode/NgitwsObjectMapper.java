@@ -1,13 +1,23 @@
 package org.kevinoff.samplecode;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Contains static instances to a regular Jackson2Json ObjectMapper and an ObjectMapper.
@@ -19,29 +29,61 @@ import java.util.Date;
  */
 public class NgitwsObjectMapper extends ObjectMapper{
     
-    private static NgitwsObjectMapper objectMapper = null;
-    private static NgitwsObjectMapper dAObjectMapper = null;
+    /**
+     * The most types to keep a reader and a writer for. Readers and writers for
+     * other types are built every time they are asked for.
+     */
+    static final int MAX_CACHED_TYPES = 256;
+    
+    private final ConcurrentHashMap<Class<?>, Cached<ObjectReader>> readers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, Cached<ObjectWriter>> writers = new ConcurrentHashMap<>();
     
+    /**
+     * Creates an instance that builds DotNotationMaps and DotNotationLists
+     * straight from the JSON tokens.
+     */
+    public NgitwsObjectMapper(){
+        super();
+        SimpleModule dotNotationModule = new SimpleModule();
+        dotNotationModule.addDeserializer(DotNotationMap.class, new DotNotationMapDeserializer());
+        dotNotationModule.addDeserializer(CompactDotNotationMap.class, new CompactDotNotationMapDeserializer());
+        dotNotationModule.addDeserializer(PrimitiveDotNotationMap.class, new PrimitiveDotNotationMapDeserializer());
+        dotNotationModule.addSerializer(CompactDotNotationMap.class, new CompactDotNotationMapSerializer());
+        dotNotationModule.addDeserializer(RawJsonDotNotationMap.class, new RawJsonDotNotationMapDeserializer());
+        dotNotationModule.addSerializer(RawJsonDotNotationMap.class, new RawJsonDotNotationMapSerializer());
+        dotNotationModule.addDeserializer(DotNotationList.class, new DotNotationListDeserializer());
+        dotNotationModule.addDeserializer(FrozenDotNotationMap.class, new FrozenDotNotationMapDeserializer());
+        dotNotationModule.addDeserializer(FrozenDotNotationList.class, new FrozenDotNotationListDeserializer());
+        this.registerModule(dotNotationModule);
+    }
+    
+    /**
+     * Holds the shared instances. The JVM creates them the first time they are
+     * used and publishes them safely to every thread, so no locking is needed.
+     */
+    private static final class Holder {
+        private static final NgitwsObjectMapper OBJECT_MAPPER = new NgitwsObjectMapper();
+        private static final NgitwsObjectMapper DATE_AWARE_OBJECT_MAPPER = createDateAwareObjectMapper();
+    }
+    
+    private static NgitwsObjectMapper createDateAwareObjectMapper(){
+        NgitwsObjectMapper mapper = new NgitwsObjectMapper();
+        SimpleModule calendarModule = new SimpleModule();
+        calendarModule.addSerializer(Calendar.class, new CalendarSerializer());
+        mapper.registerModule(calendarModule);
+
+        SimpleModule dateModule = new SimpleModule();
+        dateModule.addSerializer(Date.class, new DateSerializer());
+        mapper.registerModule(dateModule);
+        return mapper;
+    }
     
     public static NgitwsObjectMapper getNgitwsObjectMapper(){
-        if (objectMapper == null){
-            objectMapper = new NgitwsObjectMapper();
-        }
-        return objectMapper;
+        return Holder.OBJECT_MAPPER;
     }
     
     public static NgitwsObjectMapper getNgitwsDateAwareObjectMapper(){
-        if (dAObjectMapper == null){
-            dAObjectMapper = new NgitwsObjectMapper();
-            SimpleModule calendarModule = new SimpleModule();
-            calendarModule.addSerializer(Calendar.class, new CalendarSerializer());
-            dAObjectMapper.registerModule(calendarModule);
-
-            SimpleModule dateModule = new SimpleModule();
-            calendarModule.addSerializer(Date.class, new DateSerializer());
-            dAObjectMapper.registerModule(dateModule);
-        }
-        return dAObjectMapper;
+        return Holder.DATE_AWARE_OBJECT_MAPPER;
     }
     
     /**
@@ -50,11 +92,7 @@ public class NgitwsObjectMapper extends ObjectMapper{
      * @return the object mapper
      */
     public static ObjectMapper getObjectMapper(){
-        
-        if (objectMapper == null){
-            objectMapper = new NgitwsObjectMapper();
-        }
-        return objectMapper;
+        return Holder.OBJECT_MAPPER;
     }
     
     /**
@@ -63,30 +101,208 @@ public class NgitwsObjectMapper extends ObjectMapper{
      * @return the date aware object mapper
      */
     public static ObjectMapper getDateAwareObjectMapper(){
+        return Holder.DATE_AWARE_OBJECT_MAPPER;
+    }
+    
+    /**
+     * Gets an ObjectReader for the type, creating it the first time. The reader
+     * has its root deserializer resolved already, so reusing it skips that
+     * lookup on every read.
+     * <p>
+     * Changing the mapper's configuration or registering a module replaces
+     * the objects a reader is built from, so a reader made before the change
+     * is built again the next time it is asked for. At most MAX_CACHED_TYPES
+     * types are kept.
+     * 
+     * @param type The type to read
+     * @return The shared reader
+     */
+    public ObjectReader cachedReaderFor(Class<?> type){
+        Cached<ObjectReader> cached = readers.get(type);
+        if (cached == null || !cached.isCurrent(_deserializationConfig, _deserializationContext, null)){
+            ObjectReader reader = this.readerFor(type);
+            cache(readers, type, new Cached<>(reader, reader.getConfig(), _deserializationContext, null));
+            return reader;
+        }
+        return cached.value;
+    }
+    
+    /**
+     * Gets an ObjectWriter for the type, creating it the first time. The writer
+     * has its root serializer resolved already.
+     * <p>
+     * Like the readers, a writer made before the mapper's configuration or
+     * modules changed is built again, and at most MAX_CACHED_TYPES types are
+     * kept.
+     * 
+     * @param type The type to write
+     * @return The shared writer
+     */
+    public ObjectWriter cachedWriterFor(Class<?> type){
+        Cached<ObjectWriter> cached = writers.get(type);
+        if (cached == null || !cached.isCurrent(_serializationConfig, _serializerFactory, _serializerProvider)){
+            ObjectWriter writer = this.writerFor(type);
+            cache(writers, type, new Cached<>(writer, writer.getConfig(), _serializerFactory, _serializerProvider));
+            return writer;
+        }
+        return cached.value;
+    }
+    
+    private static <V> void cache(ConcurrentHashMap<Class<?>, Cached<V>> cache, Class<?> type, Cached<V> cached){
+        if (cache.size() < MAX_CACHED_TYPES || cache.containsKey(type)){
+            cache.put(type, cached);
+        }
+    }
+    
+    /**
+     * A cached reader or writer with the configuration objects it was built
+     * from. The mapper replaces those objects whenever it is configured
+     * instead of changing them, so comparing them by identity tells if the
+     * reader or writer is out of date.
+     */
+    private static final class Cached<V> {
+        private final V value;
+        private final Object config;
+        private final Object factory;
+        private final Object provider;
         
-        if (dAObjectMapper == null){
+        private Cached(V value, Object config, Object factory, Object provider){
+            this.value = value;
+            this.config = config;
+            this.factory = factory;
+            this.provider = provider;
+        }
         
-            dAObjectMapper = new NgitwsObjectMapper();
-
-            SimpleModule calendarModule = new SimpleModule();
-            calendarModule.addSerializer(Calendar.class, new CalendarSerializer());
-            dAObjectMapper.registerModule(calendarModule);
-
-            SimpleModule dateModule = new SimpleModule();
-            calendarModule.addSerializer(Date.class, new DateSerializer());
-            dAObjectMapper.registerModule(dateModule);
+        private boolean isCurrent(Object config, Object factory, Object provider){
+            return this.config == config && this.factory == factory && this.provider == provider;
+        }
+    }
+    
+    /**
+     * Runs a sample DotNotationMap and DotNotationList through both shared
+     * mappers, so the serializers, deserializers and cached readers and writers
+     * they use are built before the first real request needs them.
+     */
+    public static void warmUp(){
+        DotNotationMap sample = new DotNotationMap();
+        sample.setProperty("string", "value");
+        sample.setProperty("int", 1);
+        sample.setProperty("long", Long.MAX_VALUE);
+        sample.setProperty("double", 1.5);
+        sample.setProperty("boolean", true);
+        sample.setProperty("date", new Date());
+        sample.setProperty("calendar", Calendar.getInstance());
+        sample.setProperty("nested.list.0.key", "value");
+        DotNotationList<Object> list = new DotNotationList<>();
+        list.add(sample);
+        for (NgitwsObjectMapper mapper : new NgitwsObjectMapper[]{getNgitwsObjectMapper(), getNgitwsDateAwareObjectMapper()}){
+            try {
+                String json = mapper.cachedWriterFor(DotNotationMap.class).writeValueAsString(sample);
+                mapper.cachedReaderFor(DotNotationMap.class).readValue(json);
+                mapper.cachedReaderFor(Object.class).readValue(json);
+                String array = mapper.cachedWriterFor(DotNotationList.class).writeValueAsString(list);
+                mapper.cachedReaderFor(DotNotationList.class).readValue(array);
+            } catch (JsonProcessingException ex) {
+                throw new IllegalStateException("Problem warming up the object mapper", ex);
+            }
         }
-        return dAObjectMapper;
-    };
+    }
+    
+    /**
+     * Converts a value to the given type by serializing it into a token buffer
+     * and binding the buffered tokens, so no JSON text is ever created.
+     * <p>
+     * Unlike convertValue it always runs the full serialize and deserialize
+     * cycle, so the result is a new object even when the value already has
+     * the requested type.
+     * 
+     * @param <T> The type to convert to
+     * @param value The value to convert
+     * @param valueType The type to convert to
+     * @return The converted value
+     * @throws JsonProcessingException If the value can't be serialized or bound
+     */
+    public <T> T convertThroughTokens(Object value, Class<T> valueType) throws JsonProcessingException{
+        TokenBuffer buffer = new TokenBuffer(this, false);
+        try {
+            this.writeValue(buffer, value);
+            try (JsonParser parser = buffer.asParser()){
+                return this.readValue(parser, valueType);
+            }
+        } catch (IOException ex) {
+            if (ex instanceof JsonProcessingException){
+                throw (JsonProcessingException)ex;
+            }else{
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+    
+    /**
+     * Writes the value to the stream as UTF-8 JSON without closing the stream.
+     * 
+     * @param out The stream to write to
+     * @param value The value to write
+     * @throws IOException If the value can't be serialized or written
+     */
+    public void writeValueWithoutClosing(OutputStream out, Object value) throws IOException{
+        writeValueWithoutClosing(createGeneratorWithoutClosing(out), value);
+    }
     
+    /**
+     * Writes the value to the writer as JSON without closing the writer.
+     * 
+     * @param writer The writer to write to
+     * @param value The value to write
+     * @throws IOException If the value can't be serialized or written
+     */
+    public void writeValueWithoutClosing(Writer writer, Object value) throws IOException{
+        JsonGenerator generator = this.getFactory().createGenerator(writer);
+        this.getSerializationConfig().initialize(generator);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        writeValueWithoutClosing(generator, value);
+    }
     
+    /**
+     * Creates a UTF-8 generator configured like the ones this mapper uses
+     * internally. Closing the generator does not close the stream.
+     * 
+     * @param out The stream to write to
+     * @return The generator
+     * @throws IOException If the generator can't be created
+     */
+    JsonGenerator createGeneratorWithoutClosing(OutputStream out) throws IOException{
+        JsonGenerator generator = this.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        this.getSerializationConfig().initialize(generator);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
+    }
+    
+    private void writeValueWithoutClosing(JsonGenerator generator, Object value) throws IOException{
+        try {
+            this.writeValue(generator, value);
+        } finally {
+            generator.close();
+        }
+    }
+    
+    /**
+     * Creates a deserialization context for code that reads straight from a
+     * parser instead of going through readValue.
+     * 
+     * @param p The parser that will be read
+     * @return The context
+     */
+    DeserializationContext createDeserializationContext(JsonParser p){
+        return createDeserializationContext(p, getDeserializationConfig());
+    }
     
     @Override
     public <T> T readValue(String content, Class<T> valueType)
         throws JsonProcessingException{
         
         try {
-            return super.readValue(content, valueType);
+            return cachedReaderFor(valueType).readValue(content);
         } catch (IOException ex) {
             if (ex instanceof JsonProcessingException){
                 throw (JsonProcessingException)ex;
@@ -0,0 +1,460 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Iterates the records of a JSON array stream or a JSON Lines stream, binding
+ * them on a pool of threads.
+ * <p>
+ * A scanner thread of its own finds the record boundaries in the stream with a
+ * {@link JsonRecordScanner} and hands the raw bytes of the records to the pool
+ * in small batches, so the pool is kept busy while the caller is working on a
+ * record. Records come back in the order they are in the stream. At most about
+ * window records are scanned ahead of the one the caller is on, which caps how
+ * much memory the iterator uses however large the stream is.
+ * <p>
+ * A record that can't be bound is thrown from next once the records before it
+ * have been returned, and the iterator is closed, since the records after it
+ * can't be told apart from the rest of the broken one.
+ * <p>
+ * The scanner thread closes the stream and stops once the end of the stream
+ * is reached or the iterator is closed. Close an iterator that isn't read to
+ * the end. One that is dropped without being closed releases its scanner
+ * thread and its stream only once it has been garbage collected.
+ * 
+ * @author kevin.off
+ * @param <T> The type of object that next returns
+ */
+public class ParallelJsonRecordIterator<T> implements CloseableIterator<T> {
+    
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+    private static final int MAX_BATCH_RECORDS = 64;
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+    
+    private final Scanner<T> scanner;
+    private List<T> batch = null;
+    private int batchPos = 0;
+    private Exception failure = null;
+    private boolean closed = false;
+    
+    /**
+     * Creates an iterator that binds records on the shared pool, which has a
+     * thread for each processor
+     * 
+     * @param <T> The type of the records
+     * @param is The stream containing a JSON array
+     * @param clazz The class to deserialize the records into
+     * @return The iterator
+     */
+    public static <T> ParallelJsonRecordIterator<T> makeIterator(InputStream is, Class<T> clazz){
+        return makeIterator(is, clazz, sharedPool(), defaultWindow());
+    }
+    
+    /**
+     * Creates an iterator that binds records on the given executor. The
+     * executor is not shut down when the iterator is closed.
+     * 
+     * @param <T> The type of the records
+     * @param is The stream containing a JSON array
+     * @param clazz The class to deserialize the records into
+     * @param executor The executor to bind the records on
+     * @param window The most records to have scanned ahead of the caller
+     * @return The iterator
+     */
+    public static <T> ParallelJsonRecordIterator<T> makeIterator(InputStream is, Class<T> clazz, ExecutorService executor, int window){
+        return makeIterator(is, new JsonRecordScanner(is), clazz, executor, window);
+    }
+    
+    /**
+     * Creates an iterator over a stream of JSON Lines (NDJSON) that binds the
+     * lines on the shared pool, which has a thread for each processor. Blank
+     * lines are skipped.
+     * 
+     * @param <T> The type of the records
+     * @param is The stream containing one JSON value per line
+     * @param clazz The class to deserialize the records into
+     * @return The iterator
+     */
+    public static <T> ParallelJsonRecordIterator<T> makeJsonLinesIterator(InputStream is, Class<T> clazz){
+        return makeJsonLinesIterator(is, clazz, sharedPool(), defaultWindow());
+    }
+    
+    /**
+     * Creates an iterator over a stream of JSON Lines (NDJSON) that binds the
+     * lines on the given executor. The executor is not shut down when the
+     * iterator is closed.
+     * 
+     * @param <T> The type of the records
+     * @param is The stream containing one JSON value per line
+     * @param clazz The class to deserialize the records into
+     * @param executor The executor to bind the records on
+     * @param window The most records to have scanned ahead of the caller
+     * @return The iterator
+     */
+    public static <T> ParallelJsonRecordIterator<T> makeJsonLinesIterator(InputStream is, Class<T> clazz, ExecutorService executor, int window){
+        return makeIterator(is, JsonRecordScanner.forLines(is), clazz, executor, window);
+    }
+    
+    private static int defaultWindow(){
+        return Runtime.getRuntime().availableProcessors() * MAX_BATCH_RECORDS * 4;
+    }
+    
+    private static <T> ParallelJsonRecordIterator<T> makeIterator(InputStream is, JsonRecordScanner scanner, Class<T> clazz, ExecutorService executor, int window){
+        if (window <= 0){
+            throw new IllegalArgumentException("The window must be positive");
+        }
+        int maxBatches = (window + MAX_BATCH_RECORDS - 1) / MAX_BATCH_RECORDS;
+        return new ParallelJsonRecordIterator<>(new ScannedBatches<>(is, scanner, clazz), executor, maxBatches);
+    }
+    
+    /**
+     * Creates an iterator over batches of records from any source, and starts
+     * the scanner thread that reads it
+     * 
+     * @param source The source of the batches
+     * @param executor The executor to bind the batches on. It is not shut down by the iterator
+     * @param maxBatches The most batches to have in flight at once
+     */
+    ParallelJsonRecordIterator(BatchSource<T> source, ExecutorService executor, int maxBatches){
+        this.scanner = new Scanner<>(source, executor, Math.max(1, maxBatches), this);
+        Thread thread = new Thread(scanner, "JsonRecordScanner-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Creates a fixed pool of daemon threads for binding records
+     * 
+     * @param threads The number of threads
+     * @return The pool
+     */
+    static ExecutorService newPool(int threads){
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "JsonRecordBinder-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Gets the pool the iterators made without an executor bind their records
+     * on. It has a daemon thread for each processor, is created the first time
+     * it is needed and is never shut down.
+     * 
+     * @return The shared pool
+     */
+    static ExecutorService sharedPool(){
+        return SharedPool.POOL;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (batch == null || batchPos >= batch.size()){
+            if (failure != null){
+                //Let next throw it
+                return true;
+            }else if (closed){
+                return false;
+            }
+            Future<List<T>> next;
+            try {
+                next = scanner.batches.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for a record"));
+            }
+            if (next == scanner.end){
+                close();
+                return false;
+            }
+            batch = null;
+            batchPos = 0;
+            try {
+                batch = await(next);
+            } catch (PartialBatchException ex) {
+                batch = (List<T>)ex.bound;
+                failure = (Exception)ex.getCause();
+            } catch (IOException | RuntimeException ex) {
+                failure = ex;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() throws IOException, JsonProcessingException {
+        if (!hasNext()){
+            throw new NoSuchElementException();
+        }
+        if (batch == null || batchPos >= batch.size()){
+            //The records before the failure are all returned
+            Exception ex = failure;
+            close();
+            if (ex instanceof IOException){
+                throw (IOException)ex;
+            }
+            throw (RuntimeException)ex;
+        }
+        return batch.get(batchPos++);
+    }
+    
+    /**
+     * Thrown by a batch task when a record can't be bound, with the records of
+     * the batch that were bound before it
+     */
+    static final class PartialBatchException extends IOException {
+        private final List<?> bound;
+        
+        /**
+         * Creates the exception
+         * 
+         * @param bound The records bound before the failure
+         * @param cause What binding the record threw
+         */
+        PartialBatchException(List<?> bound, Exception cause){
+            super(cause.getMessage(), cause);
+            this.bound = bound;
+        }
+    }
+    
+    /**
+     * Waits for a task, rethrowing what it threw the way a caller on this
+     * thread would expect to see it
+     * 
+     * @param <R> The type of the result
+     * @param task The task
+     * @return The result
+     * @throws IOException If the task threw one or the wait was interrupted
+     */
+    static <R> R await(Future<R> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a record");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException){
+                throw (IOException)cause;
+            }else if (cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            }else if (cause instanceof Error){
+                throw (Error)cause;
+            }
+            throw new IOException("Problem binding a record", cause);
+        }
+    }
+
+    /**
+     * Stops the scanner thread, which closes the source, and drops the
+     * records that were read ahead
+     */
+    @Override
+    public void close() {
+        if (closed){
+            return;
+        }
+        closed = true;
+        batch = null;
+        failure = null;
+        scanner.stop();
+    }
+
+    @Override
+    public List<T> toList() throws IOException, JsonProcessingException {
+        List<T> list = new ArrayList<>();
+        while(hasNext()){
+            list.add(next());
+        }
+        return list;
+    }
+    
+    /**
+     * Hands out the work of binding the records one batch at a time, in order
+     * 
+     * @param <T> The type of the records
+     */
+    interface BatchSource<T> extends Closeable {
+        
+        /**
+         * Gets the next batch to bind. Called only from the scanner thread.
+         * 
+         * @return A task that binds the batch, or null if there are no more
+         * @throws IOException If the source can't be read
+         */
+        Callable<List<T>> nextBatch() throws IOException;
+    }
+    
+    /**
+     * Runs on the scanner thread. Reads batches from the source, submits them
+     * and queues them in order until the source ends, the iterator is closed
+     * or the iterator is garbage collected. It only holds a weak reference to
+     * the iterator so that a dropped iterator can be collected.
+     */
+    private static final class Scanner<T> implements Runnable {
+        private final BatchSource<T> source;
+        private final ExecutorService executor;
+        private final BlockingQueue<Future<List<T>>> batches;
+        private final WeakReference<Object> owner;
+        private final Future<List<T>> end = completed(() -> null);
+        private volatile boolean stopped = false;
+        
+        private Scanner(BatchSource<T> source, ExecutorService executor, int maxBatches, Object owner){
+            this.source = source;
+            this.executor = executor;
+            this.batches = new ArrayBlockingQueue<>(maxBatches + 1);
+            this.owner = new WeakReference<>(owner);
+        }
+        
+        @Override
+        public void run(){
+            try {
+                Callable<List<T>> task;
+                while (!stopped && (task = source.nextBatch()) != null){
+                    if (!queue(executor.submit(task))){
+                        return;
+                    }
+                }
+            } catch (Throwable ex) {
+                if (!queue(completed(() -> { throw ex; }))){
+                    return;
+                }
+            } finally {
+                IOUtils.closeQuietly(source);
+            }
+            queue(end);
+        }
+        
+        /**
+         * Waits for room in the queue, checking now and then that the
+         * iterator is still there
+         * 
+         * @return False if the iterator is gone and the scanner should stop
+         */
+        private boolean queue(Future<List<T>> batch){
+            try {
+                while (!stopped){
+                    if (batches.offer(batch, 1, TimeUnit.SECONDS)){
+                        if (stopped){
+                            //close drained the queue before this went in
+                            dropQueued();
+                            return false;
+                        }
+                        return true;
+                    }else if (owner.get() == null){
+                        stopped = true;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                stopped = true;
+            }
+            batch.cancel(false);
+            dropQueued();
+            return false;
+        }
+        
+        /**
+         * Called from the iterating thread when the iterator is closed
+         */
+        private void stop(){
+            stopped = true;
+            //Make room so a scanner waiting to queue a batch sees the stop
+            dropQueued();
+        }
+        
+        private void dropQueued(){
+            Future<List<T>> batch;
+            while ((batch = batches.poll()) != null){
+                batch.cancel(false);
+            }
+        }
+        
+        private static <R> Future<R> completed(Callable<R> callable){
+            FutureTask<R> task = new FutureTask<>(callable);
+            task.run();
+            return task;
+        }
+    }
+    
+    /**
+     * Holds the shared pool so it is only created when it is used
+     */
+    private static final class SharedPool {
+        private static final ExecutorService POOL = newPool(Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Batches of records found in a stream by a JsonRecordScanner
+     */
+    private static final class ScannedBatches<T> implements BatchSource<T> {
+        private final InputStream inputStream;
+        private final JsonRecordScanner scanner;
+        private final ObjectReader reader;
+        
+        private ScannedBatches(InputStream is, JsonRecordScanner scanner, Class<T> clazz){
+            this.inputStream = is;
+            this.scanner = scanner;
+            this.reader = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper().cachedReaderFor(clazz);
+        }
+        
+        @Override
+        public Callable<List<T>> nextBatch() throws IOException {
+            List<byte[]> records = new ArrayList<>();
+            int bytes = 0;
+            while (records.size() < MAX_BATCH_RECORDS && bytes < MAX_BATCH_BYTES){
+                byte[] record = scanner.nextRecord();
+                if (record == null){
+                    break;
+                }
+                records.add(record);
+                bytes += record.length;
+            }
+            if (records.isEmpty()){
+                return null;
+            }
+            return () -> {
+                List<T> bound = new ArrayList<>(records.size());
+                try {
+                    for (byte[] record : records){
+                        bound.add(reader.readValue(record));
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    throw new PartialBatchException(bound, ex);
+                }
+                return bound;
+            };
+        }
+        
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(this.inputStream);
+        }
+    }
+    
+}
@@ -0,0 +1,92 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A set of dot notation paths merged into a tree by segment.
+ * <p>
+ * Streaming readers walk it alongside the JSON tokens to decide which fields
+ * and array elements to keep. A node that is the end of a path keeps its
+ * whole subtree. Array elements are matched by their index as a segment,
+ * so "features.0" selects the first element of the features array.
+ *
+ * @author kevin.off
+ */
+final class PathTrie {
+
+    private final Map<String, PathTrie> children = new HashMap<>();
+    private boolean terminal = false;
+    private int lastIndex = -1;
+
+    private PathTrie(){}
+
+    /**
+     * Builds the tree for a set of paths
+     *
+     * @param paths The dot notation paths
+     * @return The root of the tree
+     */
+    static PathTrie of(Collection<String> paths){
+        PathTrie root = new PathTrie();
+        for (String path : paths){
+            root.add(DotPath.of(path));
+        }
+        return root;
+    }
+
+    private void add(DotPath path){
+        PathTrie node = this;
+        for (int i = 0; i < path.size() && !node.terminal; i++){
+            node.lastIndex = Math.max(node.lastIndex, path.index(i));
+            node = node.children.computeIfAbsent(path.segment(i), k -> new PathTrie());
+        }
+        node.terminal = true;
+        node.children.clear();
+    }
+
+    /**
+     * Gets the node for a field of an object
+     *
+     * @param name The field name
+     * @return The node or null if no path goes through the field
+     */
+    PathTrie child(String name){
+        return children.get(name);
+    }
+
+    /**
+     * Gets the node for an element of an array
+     *
+     * @param index The position of the element
+     * @return The node or null if no path goes through the element
+     */
+    PathTrie child(int index){
+        return (index > lastIndex) ? null : children.get(Integer.toString(index));
+    }
+
+    /**
+     * Gets the highest array index any path goes through at this node
+     *
+     * @return The index, or -1 if no path uses an index here
+     */
+    int lastIndex(){
+        return lastIndex;
+    }
+
+    /**
+     * Checks if a path ends at this node, in which case the whole subtree is selected
+     *
+     * @return True if the whole subtree is selected
+     */
+    boolean isTerminal(){
+        return terminal;
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An InputStream that reads another InputStream ahead of the consumer on a
+ * background thread.
+ * <p>
+ * The producer fills a bounded set of byte chunks from the source while the
+ * consumer drains the ones that are already full, so slow upstream work like a
+ * database cursor or JSON serialization overlaps with slow downstream work like
+ * a socket write or gzip. Once every chunk is full the producer waits for the
+ * consumer.
+ * <p>
+ * An exception thrown while reading the source is rethrown to the consumer,
+ * wrapped in an IOException, after the bytes read before it, and again on
+ * every read after that. An Error is rethrown as it is. Closing this stream
+ * tells the producer to stop after the chunk it is working on and interrupts
+ * it, which wakes a producer blocked in a source that reads from an
+ * interruptible channel. The source is always closed by the producer when it
+ * stops, so a source whose read ignores interrupts keeps the producer until
+ * that read returns. Close such a source yourself, for example a socket, if
+ * the read can block for a long time.
+ * 
+ * @author kevin.off
+ */
+public class PipelinedInputStream extends InputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_CHUNK_COUNT = 4;
+    
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+    
+    private final InputStream source;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+    private volatile boolean closed = false;
+    private Thread producer = null;
+    
+    private Chunk current = null;
+    private int pos = 0;
+    private boolean finished = false;
+    private IOException failure = null;
+    
+    /**
+     * Creates an instance that reads the source on a new daemon thread
+     * 
+     * @param source The stream to read ahead
+     */
+    public PipelinedInputStream(InputStream source){
+        this(source, null, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_COUNT);
+    }
+    
+    /**
+     * Creates an instance that reads the source with a task on the executor
+     * 
+     * @param source The stream to read ahead
+     * @param executor The executor to run the producer on, or null for a new daemon thread
+     */
+    public PipelinedInputStream(InputStream source, Executor executor){
+        this(source, executor, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_COUNT);
+    }
+    
+    /**
+     * Creates a new instance with all required fields. The producer is
+     * started right away.
+     * 
+     * @param source The stream to read ahead
+     * @param executor The executor to run the producer on, or null for a new daemon thread
+     * @param chunkSize The size of each chunk in bytes
+     * @param chunkCount The number of chunks. At most this many bytes times the chunk size are read ahead
+     */
+    public PipelinedInputStream(InputStream source, Executor executor, int chunkSize, int chunkCount){
+        if (chunkSize <= 0 || chunkCount <= 0){
+            throw new IllegalArgumentException("The chunk size and chunk count must be positive");
+        }
+        this.source = source;
+        this.free = new ArrayBlockingQueue<>(chunkCount);
+        this.filled = new ArrayBlockingQueue<>(chunkCount + 1);
+        for (int i = 0; i < chunkCount; i++){
+            free.add(new Chunk(new byte[chunkSize]));
+        }
+        if (executor == null){
+            Thread thread = new Thread(this::produce, "PipelinedInputStream-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }else{
+            executor.execute(this::produce);
+        }
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (!nextChunkIfNeeded()){
+            return -1;
+        }
+        return current.data[pos++] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off){
+            throw new IndexOutOfBoundsException();
+        }else if (len == 0){
+            return 0;
+        }
+        if (!nextChunkIfNeeded()){
+            return -1;
+        }
+        int read = 0;
+        //Keep copying as long as the producer has chunks ready, but only block for the first one
+        do {
+            int n = Math.min(current.length - pos, len - read);
+            System.arraycopy(current.data, pos, b, off + read, n);
+            pos += n;
+            read += n;
+        } while (read < len && (pos < current.length || nextChunkIfReady()));
+        return read;
+    }
+    
+    /**
+     * Gets the number of bytes left in the chunk the consumer is reading
+     * 
+     * @return The number of bytes that can be read without blocking
+     */
+    @Override
+    public int available() {
+        return (current == null) ? 0 : current.length - pos;
+    }
+    
+    /**
+     * Stops the producer after the chunk it is working on and drops everything
+     * that was read ahead. The producer is interrupted so it doesn't wait for
+     * a free chunk, and closes the source when it stops.
+     */
+    @Override
+    public void close() {
+        if (closed){
+            return;
+        }
+        closed = true;
+        finished = true;
+        if (current != null){
+            recycle(current);
+            current = null;
+        }
+        Chunk chunk;
+        while ((chunk = filled.poll()) != null){
+            recycle(chunk);
+        }
+        synchronized (free){
+            if (producer != null){
+                producer.interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Makes sure there is a chunk with unread bytes, waiting for the producer
+     * if needed.
+     * 
+     * @return False if the stream is finished
+     * @throws IOException If the producer failed or the wait was interrupted
+     */
+    private boolean nextChunkIfNeeded() throws IOException {
+        while (current == null || pos >= current.length){
+            if (failure != null){
+                throw rethrown(failure);
+            }else if (closed){
+                throw new IOException("Stream closed");
+            }else if (finished){
+                return false;
+            }
+            releaseCurrent();
+            try {
+                accept(filled.take());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the stream");
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Moves to the next chunk only if the producer has one ready
+     * 
+     * @return True if there is a chunk with unread bytes
+     * @throws IOException If the producer failed
+     */
+    private boolean nextChunkIfReady() throws IOException {
+        while (!finished){
+            Chunk next = filled.peek();
+            if (next == null || next.length < 0 || next.error != null){
+                //Let the next read report the end or the error
+                return false;
+            }
+            releaseCurrent();
+            accept(filled.poll());
+            if (pos < current.length){
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void releaseCurrent(){
+        if (current != null){
+            recycle(current);
+            current = null;
+        }
+    }
+    
+    private void accept(Chunk chunk) throws IOException {
+        if (chunk.error != null){
+            finished = true;
+            failure = new IOException("Problem reading the source stream", chunk.error);
+            throw rethrown(failure);
+        }else if (chunk.length < 0){
+            finished = true;
+            return;
+        }
+        current = chunk;
+        pos = 0;
+    }
+    
+    /**
+     * Gets what to throw for a failure. An Error from the producer is thrown
+     * as it is, every time the stream is read.
+     * 
+     * @param failure The failure
+     * @return The IOException to throw
+     */
+    private static IOException rethrown(IOException failure){
+        if (failure.getCause() instanceof Error){
+            throw (Error)failure.getCause();
+        }
+        return failure;
+    }
+    
+    private void recycle(Chunk chunk){
+        if (chunk.length >= 0 && chunk.error == null){
+            free.offer(chunk);
+        }
+    }
+    
+    /**
+     * Runs on the producer thread. Fills free chunks from the source until it
+     * ends, fails or the consumer closes the stream.
+     */
+    private void produce(){
+        synchronized (free){
+            producer = Thread.currentThread();
+        }
+        try {
+            while (!closed){
+                Chunk chunk = free.take();
+                if (closed){
+                    break;
+                }
+                Throwable error = fill(chunk);
+                if (chunk.length > 0){
+                    filled.put(chunk);
+                }else{
+                    free.offer(chunk);
+                }
+                if (error != null){
+                    filled.put(Chunk.failed(error));
+                    break;
+                }else if (chunk.length < chunk.data.length){
+                    filled.put(Chunk.end());
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            filled.offer(Chunk.failed(ex));
+        } catch (Throwable ex) {
+            filled.offer(Chunk.failed(ex));
+        } finally {
+            try {
+                source.close();
+            } catch (IOException ex) {
+                //The consumer has either seen the end of the stream or stopped reading it already
+            }
+            synchronized (free){
+                producer = null;
+                if (closed){
+                    //Don't leave the interrupt from close on a pooled thread
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Reads from the source until the chunk is full or the source ends. The
+     * chunk keeps whatever was read before a failure.
+     * 
+     * @param chunk The chunk to fill
+     * @return The exception the source threw, or null
+     */
+    private Throwable fill(Chunk chunk){
+        chunk.length = 0;
+        try {
+            while (chunk.length < chunk.data.length){
+                int n = source.read(chunk.data, chunk.length, chunk.data.length - chunk.length);
+                if (n < 0){
+                    break;
+                }
+                chunk.length += n;
+            }
+            return null;
+        } catch (Throwable ex) {
+            return ex;
+        }
+    }
+    
+    /**
+     * A buffer passed between the producer and the consumer. A chunk with a
+     * negative length marks the end of the stream and a chunk with an error
+     * marks a failure.
+     */
+    private static final class Chunk {
+        private final byte[] data;
+        private int length = 0;
+        private Throwable error = null;
+        
+        private Chunk(byte[] data){
+            this.data = data;
+        }
+        
+        private static Chunk end(){
+            Chunk chunk = new Chunk(null);
+            chunk.length = -1;
+            return chunk;
+        }
+        
+        private static Chunk failed(Throwable error){
+            Chunk chunk = new Chunk(null);
+            chunk.error = error;
+            return chunk;
+        }
+    }
+    
+}
@@ -0,0 +1,66 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.util.Map;
+
+/**
+ * A CompactDotNotationMap that keeps its numbers unboxed.
+ * <p>
+ * Integers, Longs and Doubles are stored as the bits of a long next to the
+ * value array, so a record made mostly of numbers holds no Number objects at
+ * all. The readers put the numbers from the JSON straight into the map without
+ * boxing them, {@link #getLong(String)}, {@link #getInt(String)} and
+ * {@link #getDouble(String)} read them without boxing them, and they are
+ * written to JSON straight from their bits. getProperty and the Map views box
+ * a number each time they return it, so prefer the typed getters for numbers.
+ * Numbers in lists, BigIntegers and BigDecimals are stored boxed as usual.
+ * <pre>
+ * JsonInputStreamToIterator&lt;PrimitiveDotNotationMap&gt; iterator = JsonInputStreamToIterator.makeIterator(is, PrimitiveDotNotationMap.class);
+ * </pre>
+ *
+ * @author kevin.off
+ */
+public class PrimitiveDotNotationMap extends CompactDotNotationMap {
+
+    /**
+     * Creates an instance
+     */
+    public PrimitiveDotNotationMap(){}
+
+    /**
+     * Creates an instance that may defer date parsing
+     *
+     * @param lazyDates true to parse date strings on first read instead of when they are set
+     */
+    public PrimitiveDotNotationMap(boolean lazyDates){
+        super(lazyDates);
+    }
+
+    /**
+     * Creates an instance by copying the values from the given map
+     *
+     * @param vals The map to copy
+     */
+    public PrimitiveDotNotationMap(Map<String, ?> vals){
+        super(vals);
+    }
+
+    /**
+     * Creates an instance by copying the values from the given DotNotationMap
+     *
+     * @param map The map to copy
+     */
+    public PrimitiveDotNotationMap(DotNotationMap map){
+        super(map);
+    }
+
+    @Override
+    Storage storage(){
+        return Storage.PRIMITIVE;
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import java.io.IOException;
+
+/**
+ * A custom Deserializer used in Jackson2Json to build a PrimitiveDotNotationMap in a
+ * single pass over the tokens using {@link DotNotationTreeReader}.
+ * 
+ * @author kevin.off
+ */
+public class PrimitiveDotNotationMapDeserializer extends StdDeserializer<PrimitiveDotNotationMap>{
+
+    public PrimitiveDotNotationMapDeserializer(){
+        super(PrimitiveDotNotationMap.class);
+    }
+
+    /**
+     * Builds a new PrimitiveDotNotationMap from the current JSON value
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @return The new PrimitiveDotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public PrimitiveDotNotationMap deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return (PrimitiveDotNotationMap)DotNotationTreeReader.readMap(p, ctxt, new PrimitiveDotNotationMap());
+    }
+
+    /**
+     * Adds the current JSON value to an existing PrimitiveDotNotationMap
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @param intoValue the PrimitiveDotNotationMap to fill
+     * @return The filled PrimitiveDotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public PrimitiveDotNotationMap deserialize(JsonParser p, DeserializationContext ctxt, PrimitiveDotNotationMap intoValue) throws IOException {
+        return (PrimitiveDotNotationMap)DotNotationTreeReader.readMap(p, ctxt, intoValue);
+    }
+
+}
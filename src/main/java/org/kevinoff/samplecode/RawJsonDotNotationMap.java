@@ -0,0 +1,588 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A DotNotationMap that keeps the UTF-8 JSON it was read from and only parses
+ * the members that are used.
+ * <p>
+ * Reading the JSON only finds where each top level member starts and ends.
+ * The value of a member is parsed into a DotNotationMap, DotNotationList or
+ * scalar, exactly the way {@link DotNotationMap#fromJson(String)} would have
+ * parsed it, the first time getProperty, get or anything else reads it.
+ * Iterating the values or entries, equals, hashCode and toString parse them
+ * all, and so does converting the map with fromObject, toObject or
+ * convertValue. Members that were never read are written back out as the bytes they
+ * came in as, so a map that is read, has a field or two looked at or changed
+ * and is written again costs little more than copying the bytes. Those
+ * members keep their original text, so dates in them are not reformatted and
+ * nothing in them is checked until they are parsed. A member that turns out
+ * to be malformed throws an UncheckedIOException when it is read.
+ * <pre>
+ * RawJsonDotNotationMap map = RawJsonDotNotationMap.fromJson(bytes);
+ * map.setProperty("route.hops", map.getInt("route.hops") + 1);
+ * map.writeJson(out);
+ * </pre>
+ * Like a LinkedHashMap it is not thread safe, and since reading a member
+ * changes the map even reads have to come from one thread at a time.
+ *
+ * @author kevin.off
+ */
+public class RawJsonDotNotationMap extends DotNotationMap {
+
+    private transient byte[] json = null;
+    /**
+     * How many members are still unparsed. The bytes are let go once it is 0.
+     */
+    private transient int pending = 0;
+
+    /**
+     * Creates an empty instance
+     */
+    public RawJsonDotNotationMap(){}
+
+    /**
+     * Creates an empty instance that may defer date parsing
+     *
+     * @param lazyDates true to parse date strings on first read instead of when they are set
+     */
+    public RawJsonDotNotationMap(boolean lazyDates){
+        super(lazyDates);
+    }
+
+    /**
+     * Creates a map over a JSON object. The bytes are copied, so the array can
+     * be reused afterwards.
+     *
+     * @param json The UTF-8 JSON object
+     * @return The map
+     * @throws JsonParseException If the bytes are not a JSON object
+     */
+    public static RawJsonDotNotationMap fromJson(byte[] json) throws JsonParseException {
+        return fromJson(json, 0, json.length, false);
+    }
+
+    /**
+     * Creates a map over a JSON object in part of an array. The bytes are
+     * copied, so the array can be reused afterwards.
+     *
+     * @param json The array holding the UTF-8 JSON object
+     * @param offset Where the object starts
+     * @param length How long it is
+     * @param lazyDates true to parse date strings on first read
+     * @return The map
+     * @throws JsonParseException If the bytes are not a JSON object
+     */
+    public static RawJsonDotNotationMap fromJson(byte[] json, int offset, int length, boolean lazyDates) throws JsonParseException {
+        RawJsonDotNotationMap map = new RawJsonDotNotationMap(lazyDates);
+        map.load(Arrays.copyOfRange(json, offset, offset + length));
+        return map;
+    }
+
+    /**
+     * Replaces the contents of the map with the members of the JSON object.
+     * The map takes the array over, so it must not be changed afterwards.
+     *
+     * @param bytes The UTF-8 JSON object
+     * @throws JsonParseException If the bytes are not a JSON object
+     */
+    void load(byte[] bytes) throws JsonParseException {
+        clear();
+        this.json = bytes;
+        int end = bytes.length;
+        int pos = skipWhitespace(bytes, 0, end);
+        if (pos >= end || bytes[pos] != '{'){
+            throw error("Expected a JSON object", pos);
+        }
+        pos = skipWhitespace(bytes, pos + 1, end);
+        if (pos < end && bytes[pos] == '}'){
+            return;
+        }
+        for (;;){
+            if (pos >= end || bytes[pos] != '"'){
+                throw error("Expected a field name", pos);
+            }
+            int keyEnd = endOfString(bytes, pos + 1, end);
+            String key = key(bytes, pos, keyEnd);
+            pos = skipWhitespace(bytes, keyEnd, end);
+            if (pos >= end || bytes[pos] != ':'){
+                throw error("Expected ':' after the field name " + key, pos);
+            }
+            int start = skipWhitespace(bytes, pos + 1, end);
+            pos = endOfValue(bytes, start, end);
+            if (pos == start){
+                throw error("Expected a value for " + key, start);
+            }
+            Slice slice = new Slice(start, pos);
+            if (key.indexOf('.') >= 0){
+                //Dotted keys make nested maps, so they are parsed now
+                parse(key, slice);
+            }else if (!(super.rawPut(key, slice) instanceof Slice)){
+                pending++;
+            }
+            pos = skipWhitespace(bytes, pos, end);
+            if (pos < end && bytes[pos] == ','){
+                pos = skipWhitespace(bytes, pos + 1, end);
+            }else if (pos < end && bytes[pos] == '}'){
+                break;
+            }else{
+                throw error("Expected ',' or '}' after the value of " + key, pos);
+            }
+        }
+        if (pending == 0){
+            json = null;
+        }
+    }
+
+    /**
+     * Checks if the member has been parsed
+     *
+     * @param key The top level key
+     * @return true if the key is missing or its value has been parsed
+     */
+    public boolean isParsed(String key){
+        return !(super.rawGet(key) instanceof Slice);
+    }
+
+    @Override
+    Object rawGet(String key){
+        Object value = super.rawGet(key);
+        if (value instanceof Slice){
+            parse(key, (Slice)value);
+            value = super.rawGet(key);
+        }
+        return value;
+    }
+
+    @Override
+    Object rawPut(String key, Object value){
+        Object old = super.rawPut(key, value);
+        if (old instanceof Slice){
+            released();
+            return null;
+        }
+        return old;
+    }
+
+    @Override
+    Object rawRemove(String key){
+        rawGet(key);
+        return super.rawRemove(key);
+    }
+
+    /**
+     * Parses a member and puts its value in the map the way the tree reader
+     * would have
+     */
+    private void parse(String key, Slice slice){
+        NgitwsObjectMapper mapper = NgitwsObjectMapper.getNgitwsObjectMapper();
+        try (JsonParser p = mapper.getFactory().createParser(json, slice.start, slice.end - slice.start)){
+            p.nextToken();
+            DotNotationTreeReader.readField(p, mapper.createDeserializationContext(p), this, key);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Problem parsing the value of " + key, ex);
+        }
+    }
+
+    private void released(){
+        if (--pending == 0){
+            json = null;
+        }
+    }
+
+    /**
+     * Parses every member that hasn't been
+     */
+    private void parseAll(){
+        if (pending == 0){
+            return;
+        }
+        for (String key : super.keySet().toArray(new String[0])){
+            rawGet(key);
+        }
+    }
+
+    /**
+     * Writes the fields of this map to the generator. Members that haven't been
+     * parsed are copied as they are. A generator that doesn't write JSON text,
+     * like the TokenBuffer that convertValue uses, would keep the bytes as one
+     * embedded object, so for those every member is parsed and written the way
+     * a DotNotationMap would write it.
+     *
+     * @param generator The generator, inside the object
+     * @param provider The provider for the parsed values
+     * @throws IOException If the JSON can't be written
+     */
+    void writeFields(JsonGenerator generator, SerializerProvider provider) throws IOException {
+        if (!(generator instanceof JsonGeneratorImpl)){
+            parseAll();
+        }
+        for (Map.Entry<String, Object> entry : super.entrySet()){
+            generator.writeFieldName(entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Slice){
+                generator.writeRawValue(new RawValue(json, (Slice)value));
+            }else if (value == null){
+                provider.defaultSerializeNull(generator);
+            }else{
+                provider.defaultSerializeValue(value, generator);
+            }
+        }
+    }
+
+    /**
+     * Gets the entries as they are stored, with the unparsed members as
+     * placeholders
+     *
+     * @return The stored entries
+     */
+    Set<Map.Entry<String, Object>> storedEntries(){
+        return super.entrySet();
+    }
+
+    /**
+     * Gets how many bytes of JSON the map is holding on to
+     *
+     * @return The length of the JSON, or 0 once every member is parsed
+     */
+    int rawLength(){
+        return (json == null) ? 0 : json.length;
+    }
+
+    @Override
+    public void clear(){
+        super.clear();
+        json = null;
+        pending = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet(){
+        parseAll();
+        return super.entrySet();
+    }
+
+    @Override
+    public Collection<Object> values(){
+        parseAll();
+        return super.values();
+    }
+
+    @Override
+    public boolean containsValue(Object value){
+        parseAll();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action){
+        parseAll();
+        super.forEach(action);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function){
+        parseAll();
+        super.replaceAll(function);
+    }
+
+    /*
+     * The default methods below parse the member they work on first and then
+     * use the stored entries, the way the LinkedHashMap ones do for a
+     * DotNotationMap.
+     */
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue){
+        parseKey(key);
+        return super.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value){
+        parseKey(key);
+        return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value){
+        parseKey(key);
+        return super.remove(key, value);
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue){
+        parseKey(key);
+        return super.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public Object replace(String key, Object value){
+        parseKey(key);
+        return super.replace(key, value);
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction){
+        parseKey(key);
+        return super.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction){
+        parseKey(key);
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction){
+        parseKey(key);
+        return super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction){
+        parseKey(key);
+        return super.merge(key, value, remappingFunction);
+    }
+
+    @Override
+    public Object clone(){
+        parseAll();
+        return super.clone();
+    }
+
+    private void parseKey(Object key){
+        if (key instanceof String && pending > 0){
+            rawGet((String)key);
+        }
+    }
+
+    /**
+     * Serializes the map with every member parsed, since the placeholders
+     * only mean something next to the bytes
+     */
+    private Object writeReplace(){
+        parseAll();
+        return this;
+    }
+
+    private static int skipWhitespace(byte[] b, int pos, int end){
+        while (pos < end && (b[pos] == ' ' || b[pos] == '\n' || b[pos] == '\r' || b[pos] == '\t')){
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Finds the end of a value, leaving it after an object, array or string
+     * and before whatever ends a number, true, false or null
+     */
+    private static int endOfValue(byte[] b, int pos, int end) throws JsonParseException {
+        if (pos >= end){
+            return pos;
+        }
+        byte first = b[pos];
+        if (first == '"'){
+            return endOfString(b, pos + 1, end);
+        }
+        if (first == '{' || first == '['){
+            int depth = 0;
+            int p = pos;
+            while (p < end){
+                byte c = b[p++];
+                if (c == '"'){
+                    p = endOfString(b, p, end);
+                }else if (c == '{' || c == '['){
+                    depth++;
+                }else if ((c == '}' || c == ']') && --depth == 0){
+                    return p;
+                }
+            }
+            throw error("Unexpected end of the input in a value", pos);
+        }
+        int p = pos;
+        while (p < end){
+            byte c = b[p];
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',' || c == ']' || c == '}'){
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Finds the end of a string whose opening quote is before pos, leaving it
+     * after the closing quote
+     */
+    private static int endOfString(byte[] b, int pos, int end) throws JsonParseException {
+        for (int p = pos; p < end; p++){
+            byte c = b[p];
+            if (c == '\\'){
+                p++;
+            }else if (c == '"'){
+                return p + 1;
+            }
+        }
+        throw error("Unexpected end of the input in a string", pos);
+    }
+
+    /**
+     * Decodes a field name from its quotes. Names with escapes are left to the
+     * parser.
+     */
+    private static String key(byte[] b, int quote, int end) throws JsonParseException {
+        for (int p = quote + 1; p < end - 1; p++){
+            if (b[p] == '\\'){
+                try {
+                    return NgitwsObjectMapper.getNgitwsObjectMapper().readValue(b, quote, end - quote, String.class);
+                } catch (IOException ex) {
+                    throw error("Malformed field name", quote);
+                }
+            }
+        }
+        return new String(b, quote + 1, end - quote - 2, StandardCharsets.UTF_8);
+    }
+
+    private static JsonParseException error(String message, int pos){
+        return new JsonParseException(null, message + " at byte " + pos);
+    }
+
+    /**
+     * Where an unparsed member's value is in the bytes
+     */
+    private static final class Slice {
+        private final int start;
+        private final int end;
+
+        private Slice(int start, int end){
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Hands the bytes of an unparsed value to a generator. A UTF-8 generator
+     * copies them straight into its buffer and a character generator decodes
+     * them.
+     */
+    private static final class RawValue implements SerializableString {
+        private final byte[] json;
+        private final int start;
+        private final int length;
+
+        private RawValue(byte[] json, Slice slice){
+            this.json = json;
+            this.start = slice.start;
+            this.length = slice.end - slice.start;
+        }
+
+        @Override
+        public String getValue(){
+            return new String(json, start, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int charLength(){
+            return getValue().length();
+        }
+
+        @Override
+        public char[] asQuotedChars(){
+            return getValue().toCharArray();
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8(){
+            return Arrays.copyOfRange(json, start, start + length);
+        }
+
+        @Override
+        public byte[] asQuotedUTF8(){
+            return asUnquotedUTF8();
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset){
+            return appendUnquotedUTF8(buffer, offset);
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset){
+            return appendUnquoted(buffer, offset);
+        }
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset){
+            if (offset + length > buffer.length){
+                return -1;
+            }
+            System.arraycopy(json, start, buffer, offset, length);
+            return length;
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset){
+            String value = getValue();
+            if (offset + value.length() > buffer.length){
+                return -1;
+            }
+            value.getChars(0, value.length(), buffer, offset);
+            return value.length();
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) throws IOException {
+            return writeUnquotedUTF8(out);
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            out.write(json, start, length);
+            return length;
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) throws IOException {
+            return putUnquotedUTF8(buffer);
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer buffer) throws IOException {
+            if (length > buffer.remaining()){
+                return -1;
+            }
+            buffer.put(json, start, length);
+            return length;
+        }
+
+        @Override
+        public String toString(){
+            return getValue();
+        }
+    }
+
+}
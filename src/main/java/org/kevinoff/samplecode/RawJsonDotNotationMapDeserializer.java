@@ -0,0 +1,67 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import java.io.IOException;
+
+/**
+ * A custom Deserializer used in Jackson2Json to build a RawJsonDotNotationMap.
+ * The parser has already split the input into tokens by the time this runs, so
+ * the object is copied back out to UTF-8 bytes and those are indexed. Use
+ * {@link RawJsonDotNotationMap#fromJson(byte[])} when the bytes are at hand
+ * to skip the tokenizing altogether.
+ * 
+ * @author kevin.off
+ */
+public class RawJsonDotNotationMapDeserializer extends StdDeserializer<RawJsonDotNotationMap>{
+
+    public RawJsonDotNotationMapDeserializer(){
+        super(RawJsonDotNotationMap.class);
+    }
+
+    /**
+     * Builds a new RawJsonDotNotationMap from the current JSON object
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @return The new RawJsonDotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public RawJsonDotNotationMap deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return deserialize(p, ctxt, new RawJsonDotNotationMap());
+    }
+
+    /**
+     * Replaces the contents of an existing RawJsonDotNotationMap with the
+     * current JSON object
+     * 
+     * @param p the parser
+     * @param ctxt the context
+     * @param intoValue the RawJsonDotNotationMap to fill
+     * @return The filled RawJsonDotNotationMap
+     * @throws IOException If there is an issue reading the JSON
+     */
+    @Override
+    public RawJsonDotNotationMap deserialize(JsonParser p, DeserializationContext ctxt, RawJsonDotNotationMap intoValue) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT){
+            return (RawJsonDotNotationMap)ctxt.handleUnexpectedToken(RawJsonDotNotationMap.class, p);
+        }
+        ByteArrayBuilder bytes = new ByteArrayBuilder();
+        try (JsonGenerator generator = NgitwsObjectMapper.getNgitwsObjectMapper().getFactory().createGenerator(bytes)){
+            generator.copyCurrentStructure(p);
+        }
+        intoValue.load(bytes.toByteArray());
+        return intoValue;
+    }
+
+}
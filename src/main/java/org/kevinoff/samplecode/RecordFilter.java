@@ -0,0 +1,717 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of conditions on dot notation paths that a streamed record has to meet.
+ * <p>
+ * The conditions are checked while the record is being parsed, before
+ * anything is built for it. As soon as one of them fails the rest of the
+ * record is skipped with skipChildren, so only records that match are ever
+ * deserialized. Every condition has to be met for a record to match, and a
+ * condition on a path the record doesn't have fails.
+ * <p>
+ * Values are compared the way they appear in the JSON. Numbers compare by
+ * value whatever their type. A Date compares with a JSON string that
+ * DateUtil can parse, with a number of milliseconds, and with the contents of
+ * a Mongo {"$date": value} wrapper. Strings, Booleans and null compare for
+ * equality with the same kind of JSON value.
+ * <pre>
+ * RecordFilter filter = new RecordFilter()
+ *         .equalTo("status", "ACTIVE")
+ *         .between("engine.hp", 200, 400)
+ *         .in("make", "Ford", "Dodge")
+ *         .exists("owner.id");
+ * </pre>
+ * A RecordFilter can be shared between iterators once it is built. Each
+ * iterator checks records with its own Matcher.
+ *
+ * @author kevin.off
+ */
+public final class RecordFilter {
+
+    private static final String MONGO_DATE = "$date";
+
+    private final Node root = new Node();
+    private int conditionCount = 0;
+
+    /**
+     * Requires the value at the path to equal the given value
+     *
+     * @param path The dot notation path
+     * @param value The value. May be null to require a JSON null
+     * @return This filter
+     */
+    public RecordFilter equalTo(String path, Object value){
+        return in(path, Collections.singletonList(value));
+    }
+
+    /**
+     * Requires the value at the path to equal one of the given values
+     *
+     * @param path The dot notation path
+     * @param values The allowed values
+     * @return This filter
+     */
+    public RecordFilter in(String path, Object... values){
+        return in(path, Arrays.asList(values));
+    }
+
+    /**
+     * Requires the value at the path to equal one of the given values
+     *
+     * @param path The dot notation path
+     * @param values The allowed values
+     * @return This filter
+     */
+    public RecordFilter in(String path, Collection<?> values){
+        Condition condition = new Condition(Condition.IN);
+        for (Object value : values){
+            condition.allow(normalize(value));
+        }
+        return add(path, condition);
+    }
+
+    /**
+     * Requires the value at the path to be between the two values, inclusive.
+     * Numbers, Dates and Strings can be used as bounds.
+     *
+     * @param path The dot notation path
+     * @param low The lowest allowed value, or null for no lower bound
+     * @param high The highest allowed value, or null for no upper bound
+     * @return This filter
+     */
+    public RecordFilter between(String path, Object low, Object high){
+        Condition condition = new Condition(Condition.RANGE);
+        condition.low = bound(low);
+        condition.high = bound(high);
+        return add(path, condition);
+    }
+
+    /**
+     * Requires the value at the path to be greater than or equal to the value
+     *
+     * @param path The dot notation path
+     * @param low The lowest allowed value
+     * @return This filter
+     */
+    public RecordFilter atLeast(String path, Object low){
+        return between(path, low, null);
+    }
+
+    /**
+     * Requires the value at the path to be less than or equal to the value
+     *
+     * @param path The dot notation path
+     * @param high The highest allowed value
+     * @return This filter
+     */
+    public RecordFilter atMost(String path, Object high){
+        return between(path, null, high);
+    }
+
+    /**
+     * Requires the record to have a value at the path. A JSON null counts as a value.
+     *
+     * @param path The dot notation path
+     * @return This filter
+     */
+    public RecordFilter exists(String path){
+        return add(path, new Condition(Condition.EXISTS));
+    }
+
+    private RecordFilter add(String path, Condition condition){
+        DotPath dotPath = DotPath.of(path);
+        condition.id = conditionCount++;
+        Node node = root;
+        node.require(condition.id);
+        for (int i = 0; i < dotPath.size(); i++){
+            node.lastIndex = Math.max(node.lastIndex, dotPath.index(i));
+            node = node.children.computeIfAbsent(dotPath.segment(i), k -> new Node());
+            node.require(condition.id);
+        }
+        node.conditions.add(condition);
+        return this;
+    }
+
+    /**
+     * Converts a value given to the filter into the form it is compared in
+     */
+    private static Object normalize(Object value){
+        if (value == null || value instanceof String || value instanceof Boolean || value instanceof Date){
+            return value;
+        }else if (value instanceof Calendar){
+            return ((Calendar)value).getTime();
+        }else if (value instanceof BigDecimal){
+            return new NumberValue((BigDecimal)value);
+        }else if (value instanceof BigInteger){
+            return new NumberValue(new BigDecimal((BigInteger)value));
+        }else if (value instanceof Double || value instanceof Float){
+            double d = ((Number)value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)){
+                throw new IllegalArgumentException("The number " + value + " can't be compared");
+            }
+            return new NumberValue(new BigDecimal(value.toString()));
+        }else if (value instanceof Number){
+            return new NumberValue(BigDecimal.valueOf(((Number)value).longValue()));
+        }
+        throw new IllegalArgumentException("Values of type " + value.getClass().getName() + " can't be compared");
+    }
+
+    private static Object bound(Object value){
+        Object bound = normalize(value);
+        if (bound instanceof Boolean){
+            throw new IllegalArgumentException("A Boolean can't be used as a bound");
+        }
+        return bound;
+    }
+
+    /**
+     * Creates the state one iterator needs to check records against this
+     * filter. A Matcher is not thread safe, the filter is.
+     *
+     * @return A new Matcher
+     */
+    Matcher matcher(){
+        return new Matcher();
+    }
+
+    /**
+     * Checks records against the filter for one iterator.
+     * <p>
+     * The tokens of a record are kept in arrays that are reused from one
+     * record to the next while the conditions are checked, and only a record
+     * that matches is copied into a TokenBuffer. A record that doesn't match
+     * costs no more than parsing it.
+     */
+    final class Matcher {
+        private final Tokens tokens = new Tokens();
+        private boolean[] met = new boolean[conditionCount];
+
+        private Matcher(){}
+
+        /**
+         * Reads the record at the current token while checking the conditions
+         *
+         * @param p The parser, positioned on the first token of the record
+         * @return The buffered record if it matches, or null. Either way the parser is left on the last token of the record
+         * @throws IOException If the JSON can't be read
+         */
+        TokenBuffer copyIfMatches(JsonParser p) throws IOException {
+            if (met.length != conditionCount){
+                met = new boolean[conditionCount];
+            }else{
+                Arrays.fill(met, false);
+            }
+            tokens.clear();
+            return copyValue(p, tokens, root, met) ? tokens.toTokenBuffer(p) : null;
+        }
+    }
+
+    /**
+     * Copies one value, checking the conditions on it and below it. On a
+     * failure the parser is moved to the last token of the value.
+     *
+     * @return False if a condition failed
+     */
+    private static boolean copyValue(JsonParser p, Tokens out, Node node, boolean[] met) throws IOException {
+        if (node == null){
+            out.copyCurrentStructure(p);
+            return true;
+        }
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.START_OBJECT){
+            out.copyCurrentEvent(p);
+            while (p.nextToken() == JsonToken.FIELD_NAME){
+                String name = p.getCurrentName();
+                out.copyCurrentEvent(p);
+                p.nextToken();
+                if (MONGO_DATE.equals(name) && !node.conditions.isEmpty() && p.currentToken().isScalarValue()
+                        && !check(p, node, met)){
+                    return skipRestOfObject(p);
+                }
+                if (!copyValue(p, out, node.children.get(name), met)){
+                    return skipRestOfObject(p);
+                }
+            }
+            out.copyCurrentEvent(p);
+        }else if (t == JsonToken.START_ARRAY){
+            out.copyCurrentEvent(p);
+            for (int index = 0; p.nextToken() != JsonToken.END_ARRAY; index++){
+                Node child = (index > node.lastIndex) ? null : node.children.get(Integer.toString(index));
+                if (!copyValue(p, out, child, met)){
+                    return skipRestOfArray(p);
+                }
+            }
+            out.copyCurrentEvent(p);
+        }else{
+            if (!check(p, node, met)){
+                return false;
+            }
+            out.copyCurrentEvent(p);
+        }
+        //An object or array only meets the existence conditions, unless it was a $date wrapper
+        for (Condition condition : node.conditions){
+            if (!met[condition.id]){
+                if (condition.kind != Condition.EXISTS){
+                    return false;
+                }
+                met[condition.id] = true;
+            }
+        }
+        //Anything required below this value that wasn't seen by now can't be met any more
+        for (int i = 0; i < node.requiredCount; i++){
+            if (!met[node.required[i]]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the conditions that end at this node against the scalar at the current token
+     */
+    private static boolean check(JsonParser p, Node node, boolean[] met) throws IOException {
+        for (Condition condition : node.conditions){
+            if (!condition.matches(p)){
+                return false;
+            }
+            met[condition.id] = true;
+        }
+        return true;
+    }
+
+    private static boolean skipRestOfObject(JsonParser p) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME){
+            p.nextToken();
+            p.skipChildren();
+        }
+        return false;
+    }
+
+    private static boolean skipRestOfArray(JsonParser p) throws IOException {
+        while (p.nextToken() != JsonToken.END_ARRAY){
+            p.skipChildren();
+        }
+        return false;
+    }
+
+    /**
+     * The tokens of one record, kept in arrays that are reused for the next
+     * one. Values are read from the parser the same way TokenBuffer reads
+     * them, so the TokenBuffer made from a record is the same as one copied
+     * straight from the parser.
+     */
+    private static final class Tokens {
+        private static final byte START_OBJECT = 0;
+        private static final byte END_OBJECT = 1;
+        private static final byte START_ARRAY = 2;
+        private static final byte END_ARRAY = 3;
+        private static final byte FIELD_NAME = 4;
+        private static final byte STRING = 5;
+        private static final byte INT = 6;
+        private static final byte LONG = 7;
+        private static final byte FLOAT = 8;
+        private static final byte DOUBLE = 9;
+        private static final byte TRUE = 10;
+        private static final byte FALSE = 11;
+        private static final byte NULL = 12;
+        private static final byte OBJECT = 13;
+
+        private byte[] kinds = new byte[64];
+        //A number, or the offset and length of a string in text
+        private long[] values = new long[64];
+        //A field name, a big number or an embedded object
+        private Object[] objects = new Object[64];
+        private int count = 0;
+        private char[] text = new char[256];
+        private int textLength = 0;
+
+        private void clear(){
+            Arrays.fill(objects, 0, count, null);
+            count = 0;
+            textLength = 0;
+        }
+
+        private void copyCurrentStructure(JsonParser p) throws IOException {
+            JsonToken t = p.currentToken();
+            if (t != JsonToken.START_OBJECT && t != JsonToken.START_ARRAY){
+                copyCurrentEvent(p);
+                return;
+            }
+            int depth = 0;
+            do {
+                copyCurrentEvent(p);
+                t = p.currentToken();
+                if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY){
+                    depth++;
+                }else if (t == JsonToken.END_OBJECT || t == JsonToken.END_ARRAY){
+                    depth--;
+                }
+            } while (depth > 0 && p.nextToken() != null);
+        }
+
+        private void copyCurrentEvent(JsonParser p) throws IOException {
+            switch (p.currentToken()){
+                case START_OBJECT:
+                    add(START_OBJECT, 0, null);
+                    break;
+                case END_OBJECT:
+                    add(END_OBJECT, 0, null);
+                    break;
+                case START_ARRAY:
+                    add(START_ARRAY, 0, null);
+                    break;
+                case END_ARRAY:
+                    add(END_ARRAY, 0, null);
+                    break;
+                case FIELD_NAME:
+                    add(FIELD_NAME, 0, p.getCurrentName());
+                    break;
+                case VALUE_STRING:
+                    addText(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+                    break;
+                case VALUE_NUMBER_INT:
+                    switch (p.getNumberType()){
+                        case INT:
+                            add(INT, p.getIntValue(), null);
+                            break;
+                        case BIG_INTEGER:
+                            add(OBJECT, 0, p.getBigIntegerValue());
+                            break;
+                        default:
+                            add(LONG, p.getLongValue(), null);
+                    }
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    switch (p.getNumberType()){
+                        case BIG_DECIMAL:
+                            add(OBJECT, 0, p.getDecimalValue());
+                            break;
+                        case FLOAT:
+                            add(FLOAT, Float.floatToRawIntBits(p.getFloatValue()), null);
+                            break;
+                        default:
+                            add(DOUBLE, Double.doubleToRawLongBits(p.getDoubleValue()), null);
+                    }
+                    break;
+                case VALUE_TRUE:
+                    add(TRUE, 0, null);
+                    break;
+                case VALUE_FALSE:
+                    add(FALSE, 0, null);
+                    break;
+                case VALUE_NULL:
+                    add(NULL, 0, null);
+                    break;
+                case VALUE_EMBEDDED_OBJECT:
+                    add(OBJECT, 0, p.getEmbeddedObject());
+                    break;
+                default:
+                    throw new RuntimeException("Unexpected token " + p.currentToken());
+            }
+        }
+
+        private void add(byte kind, long value, Object object){
+            if (count == kinds.length){
+                int capacity = count * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                values = Arrays.copyOf(values, capacity);
+                objects = Arrays.copyOf(objects, capacity);
+            }
+            kinds[count] = kind;
+            values[count] = value;
+            objects[count] = object;
+            count++;
+        }
+
+        private void addText(char[] chars, int offset, int length){
+            if (textLength + length > text.length){
+                text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+            }
+            System.arraycopy(chars, offset, text, textLength, length);
+            add(STRING, ((long)textLength << 32) | length, null);
+            textLength += length;
+        }
+
+        /**
+         * Copies the record into a new TokenBuffer
+         *
+         * @param p The parser the record was read from
+         */
+        private TokenBuffer toTokenBuffer(JsonParser p) throws IOException {
+            TokenBuffer buffer = new TokenBuffer(p);
+            for (int i = 0; i < count; i++){
+                long value = values[i];
+                switch (kinds[i]){
+                    case START_OBJECT:
+                        buffer.writeStartObject();
+                        break;
+                    case END_OBJECT:
+                        buffer.writeEndObject();
+                        break;
+                    case START_ARRAY:
+                        buffer.writeStartArray();
+                        break;
+                    case END_ARRAY:
+                        buffer.writeEndArray();
+                        break;
+                    case FIELD_NAME:
+                        buffer.writeFieldName((String)objects[i]);
+                        break;
+                    case STRING:
+                        buffer.writeString(text, (int)(value >>> 32), (int)value);
+                        break;
+                    case INT:
+                        buffer.writeNumber((int)value);
+                        break;
+                    case LONG:
+                        buffer.writeNumber(value);
+                        break;
+                    case FLOAT:
+                        buffer.writeNumber(Float.intBitsToFloat((int)value));
+                        break;
+                    case DOUBLE:
+                        buffer.writeNumber(Double.longBitsToDouble(value));
+                        break;
+                    case TRUE:
+                        buffer.writeBoolean(true);
+                        break;
+                    case FALSE:
+                        buffer.writeBoolean(false);
+                        break;
+                    case NULL:
+                        buffer.writeNull();
+                        break;
+                    default:
+                        Object object = objects[i];
+                        if (object instanceof BigInteger){
+                            buffer.writeNumber((BigInteger)object);
+                        }else if (object instanceof BigDecimal){
+                            buffer.writeNumber((BigDecimal)object);
+                        }else{
+                            buffer.writeObject(object);
+                        }
+                }
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * A segment of one or more condition paths
+     */
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Condition> conditions = new ArrayList<>(1);
+        private int[] required = new int[1];
+        private int requiredCount = 0;
+        private int lastIndex = -1;
+
+        /**
+         * Records that a condition ends at or below this node
+         */
+        private void require(int id){
+            if (requiredCount == required.length){
+                required = Arrays.copyOf(required, requiredCount * 2);
+            }
+            required[requiredCount++] = id;
+        }
+    }
+
+    /**
+     * One condition on the value at a path
+     */
+    private static final class Condition {
+        private static final int EXISTS = 0;
+        private static final int IN = 1;
+        private static final int RANGE = 2;
+
+        private final int kind;
+        private int id;
+
+        private final Set<String> strings = new HashSet<>();
+        private final List<NumberValue> numbers = new ArrayList<>();
+        private final List<Date> dates = new ArrayList<>();
+        private boolean allowTrue = false;
+        private boolean allowFalse = false;
+        private boolean allowNull = false;
+
+        private Object low = null;
+        private Object high = null;
+
+        private Condition(int kind){
+            this.kind = kind;
+        }
+
+        private void allow(Object value){
+            if (value == null){
+                allowNull = true;
+            }else if (value instanceof String){
+                strings.add((String)value);
+            }else if (value instanceof NumberValue){
+                numbers.add((NumberValue)value);
+            }else if (value instanceof Date){
+                dates.add((Date)value);
+            }else if ((Boolean)value){
+                allowTrue = true;
+            }else{
+                allowFalse = true;
+            }
+        }
+
+        /**
+         * Checks the scalar at the current token
+         */
+        private boolean matches(JsonParser p) throws IOException {
+            switch (kind){
+                case EXISTS:
+                    return true;
+                case IN:
+                    return matchesIn(p);
+                default:
+                    if (low != null){
+                        int c = compare(p, low);
+                        if (c == INCOMPARABLE || c < 0){
+                            return false;
+                        }
+                    }
+                    if (high != null){
+                        int c = compare(p, high);
+                        if (c == INCOMPARABLE || c > 0){
+                            return false;
+                        }
+                    }
+                    return true;
+            }
+        }
+
+        private boolean matchesIn(JsonParser p) throws IOException {
+            switch (p.currentToken()){
+                case VALUE_STRING:
+                    String text = p.getText();
+                    if (strings.contains(text)){
+                        return true;
+                    }else if (!dates.isEmpty()){
+                        Date date = DateUtil.parseString(text);
+                        return date != null && containsDate(date.getTime());
+                    }
+                    return false;
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT:
+                    for (NumberValue number : numbers){
+                        if (number.compareTo(p) == 0){
+                            return true;
+                        }
+                    }
+                    return p.currentToken() == JsonToken.VALUE_NUMBER_INT && !dates.isEmpty() && containsDate(p.getLongValue());
+                case VALUE_TRUE:
+                    return allowTrue;
+                case VALUE_FALSE:
+                    return allowFalse;
+                case VALUE_NULL:
+                    return allowNull;
+                default:
+                    return false;
+            }
+        }
+
+        private boolean containsDate(long time){
+            for (Date date : dates){
+                if (date.getTime() == time){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Compares the scalar at the current token with a bound
+         *
+         * @return The comparison, or INCOMPARABLE if the two can't be compared
+         */
+        private static int compare(JsonParser p, Object bound) throws IOException {
+            JsonToken t = p.currentToken();
+            if (bound instanceof NumberValue){
+                if (t == JsonToken.VALUE_NUMBER_INT || t == JsonToken.VALUE_NUMBER_FLOAT){
+                    return ((NumberValue)bound).compareTo(p);
+                }
+            }else if (bound instanceof Date){
+                long time = ((Date)bound).getTime();
+                if (t == JsonToken.VALUE_STRING){
+                    Date date = DateUtil.parseString(p.getText());
+                    if (date != null){
+                        return Long.compare(date.getTime(), time);
+                    }
+                }else if (t == JsonToken.VALUE_NUMBER_INT){
+                    return Long.compare(p.getLongValue(), time);
+                }
+            }else if (t == JsonToken.VALUE_STRING){
+                return p.getText().compareTo((String)bound);
+            }
+            return INCOMPARABLE;
+        }
+
+        /**
+         * Returned by compare for values that can't be compared
+         */
+        private static final int INCOMPARABLE = Integer.MIN_VALUE;
+    }
+
+    /**
+     * A number given to the filter. Integers that fit in a long are compared
+     * as longs, everything else as BigDecimals.
+     */
+    private static final class NumberValue {
+        private final BigDecimal decimal;
+        private final boolean isLong;
+        private final long longValue;
+
+        private NumberValue(BigDecimal decimal){
+            this.decimal = decimal;
+            boolean fits;
+            long l = 0;
+            try {
+                l = decimal.longValueExact();
+                fits = true;
+            } catch (ArithmeticException ex) {
+                fits = false;
+            }
+            this.isLong = fits;
+            this.longValue = l;
+        }
+
+        /**
+         * Compares the number at the current token with this one
+         */
+        private int compareTo(JsonParser p) throws IOException {
+            JsonParser.NumberType type = p.getNumberType();
+            if (isLong && (type == JsonParser.NumberType.INT || type == JsonParser.NumberType.LONG)){
+                return Long.compare(p.getLongValue(), longValue);
+            }
+            return p.getDecimalValue().compareTo(decimal);
+        }
+    }
+
+}
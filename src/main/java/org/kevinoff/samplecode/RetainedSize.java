@@ -0,0 +1,135 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Rough estimates of how much heap a record keeps alive.
+ * <p>
+ * The numbers are for a 64 bit JVM with compressed pointers and err on the high
+ * side. They walk Maps and Collections the way DotNotationMap and
+ * DotNotationList hold their values, leave out the keys a CompactDotNotationMap
+ * shares with other maps and the boxes of the numbers a PrimitiveDotNotationMap
+ * keeps unboxed, and count the common leaf types by their usual layout.
+ * Anything else is counted as a small object, so a record that isn't made of
+ * maps and lists comes out too low.
+ *
+ * @author kevin.off
+ */
+final class RetainedSize {
+
+    private static final int OBJECT = 16;
+    private static final int REFERENCE = 4;
+    private static final int ARRAY = 16;
+    private static final int MAP = 56;
+    private static final int MAP_ENTRY = 40;
+    private static final int LIST = 24;
+    private static final int STRING = 24;
+    private static final int BOX = 16;
+    private static final int WIDE_BOX = 24;
+
+    private RetainedSize(){
+    }
+
+    /**
+     * Estimates the bytes retained by the value and everything it holds
+     *
+     * @param value The value
+     * @return The estimate in bytes
+     */
+    static long of(Object value){
+        if (value == null || value instanceof Boolean){
+            return 0;
+        }
+        if (value instanceof String){
+            return string((String)value);
+        }
+        if (value instanceof CompactDotNotationMap){
+            //The keys belong to the shared Shape unless the map has its own
+            CompactDotNotationMap map = (CompactDotNotationMap)value;
+            long size = MAP + 24 + ARRAY + (long)map.capacity() * REFERENCE;
+            if (map.hasUnboxed()){
+                size += ARRAY + (long)map.capacity() * 8;
+            }
+            for (int i = 0; i < map.size(); i++){
+                if (!map.isShared()){
+                    size += REFERENCE + string(map.keyAt(i));
+                }
+                if (!map.isUnboxed(i)){
+                    size += of(map.valueAt(i));
+                }
+            }
+            return size;
+        }
+        if (value instanceof RawJsonDotNotationMap){
+            //Reading the entries would parse them, so the stored ones are used
+            RawJsonDotNotationMap map = (RawJsonDotNotationMap)value;
+            long size = MAP + ARRAY + (long)tableSize(map.size()) * REFERENCE + (long)map.size() * MAP_ENTRY;
+            if (map.rawLength() > 0){
+                size += ARRAY + map.rawLength();
+            }
+            for (Map.Entry<String, Object> entry : map.storedEntries()){
+                size += of(entry.getKey()) + of(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Map){
+            Map<?, ?> map = (Map<?, ?>)value;
+            long size = MAP + ARRAY + (long)tableSize(map.size()) * REFERENCE + (long)map.size() * MAP_ENTRY;
+            for (Map.Entry<?, ?> entry : map.entrySet()){
+                size += of(entry.getKey()) + of(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection){
+            Collection<?> list = (Collection<?>)value;
+            long size = LIST + ARRAY + (long)list.size() * REFERENCE * 3 / 2;
+            for (Object element : list){
+                size += of(element);
+            }
+            return size;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte || value instanceof Float || value instanceof Character){
+            return BOX;
+        }
+        if (value instanceof Long || value instanceof Double || value instanceof Date){
+            return WIDE_BOX;
+        }
+        if (value instanceof BigInteger){
+            return OBJECT + 24 + ARRAY + ((BigInteger)value).bitLength() / 8;
+        }
+        if (value instanceof BigDecimal){
+            return OBJECT + 24 + of(((BigDecimal)value).unscaledValue());
+        }
+        if (value instanceof DeferredDate){
+            return OBJECT + 8 + string(((DeferredDate)value).getRaw()) + WIDE_BOX;
+        }
+        return OBJECT + 16;
+    }
+
+    /**
+     * Estimates a String, counting two bytes a character since Java 8 stores
+     * every String that way
+     */
+    private static long string(String value){
+        return STRING + ARRAY + 2L * value.length();
+    }
+
+    /**
+     * Gets the table length a HashMap with the default load factor has for
+     * this many entries
+     */
+    private static int tableSize(int entries){
+        int needed = (int)Math.min(1 << 30, (long)entries * 4 / 3 + 1);
+        return Math.max(16, Integer.highestOneBit(needed - 1) << 1);
+    }
+
+}
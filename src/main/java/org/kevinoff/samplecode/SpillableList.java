@@ -0,0 +1,268 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read only List of records that keeps as many records in memory as fit in a
+ * byte budget and writes the rest to a temp file.
+ * <p>
+ * The records are kept in the order they were added. The first ones are held
+ * in memory until the estimated size of what is held goes over the budget.
+ * Every record after that is serialized to the temp file and read back from it
+ * by get, so each call returns a new copy of a spilled record. Reading the
+ * spilled records in order is fast because the file is read a block at a time.
+ * <p>
+ * Spilled records come back as the class they had when they were added, built
+ * by the date-aware ObjectMapper, so they only round trip if that class does.
+ * DotNotationMaps and DotNotationLists do. Close the list to delete the temp
+ * file once the spilled records aren't needed any more.
+ *
+ * @author kevin.off
+ * @param <T> The type of the records
+ */
+public class SpillableList<T> extends AbstractList<T> implements Closeable {
+
+    private static final int READ_BLOCK_SIZE = 64 * 1024;
+    private static final int CLASS_SHIFT = 48;
+    private static final long OFFSET_MASK = (1L << CLASS_SHIFT) - 1;
+
+    private final long maxBytes;
+    private final List<T> held = new ArrayList<>();
+    private long heldBytes = 0;
+
+    private File file = null;
+    private CountingStream out = null;
+    private JsonGenerator generator = null;
+    private long written = 0;
+    /**
+     * The offset of each spilled record in the file, with the index of its
+     * class in the top bits
+     */
+    private long[] spilled = new long[0];
+    private int spilledCount = 0;
+    private final List<Class<?>> classes = new ArrayList<>();
+
+    private RandomAccessFile in = null;
+    private final byte[] block = new byte[READ_BLOCK_SIZE];
+    private long blockStart = 0;
+    private int blockLength = 0;
+
+    /**
+     * Reads every record from the iterator into a list that holds at most about
+     * maxBytes of them in memory. The iterator is closed when it is done.
+     *
+     * @param <T> The type of the records
+     * @param iterator The records
+     * @param maxBytes The most bytes of records to hold in memory
+     * @return The list
+     * @throws IOException If a record can't be read or spilled
+     */
+    public static <T> SpillableList<T> collect(CloseableIterator<T> iterator, long maxBytes) throws IOException {
+        SpillableList<T> list = new SpillableList<>(maxBytes);
+        try {
+            while (iterator.hasNext()){
+                list.append(iterator.next());
+            }
+            list.finishWriting();
+        } catch (IOException | RuntimeException ex) {
+            list.close();
+            throw ex;
+        } finally {
+            iterator.close();
+        }
+        return list;
+    }
+
+    private SpillableList(long maxBytes){
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Checks if any records were written to the temp file
+     *
+     * @return True if some records are on disk
+     */
+    public boolean isSpilled(){
+        return spilledCount > 0;
+    }
+
+    /**
+     * Gets how many records are held in memory
+     *
+     * @return The number of records in memory
+     */
+    public int heldSize(){
+        return held.size();
+    }
+
+    private void append(T record) throws IOException {
+        if (file == null){
+            long bytes = RetainedSize.of(record);
+            if (heldBytes + bytes <= maxBytes){
+                held.add(record);
+                heldBytes += bytes;
+                return;
+            }
+            file = File.createTempFile("spilled-records", ".json");
+            out = new CountingStream(new BufferedOutputStream(Files.newOutputStream(file.toPath()), READ_BLOCK_SIZE));
+            generator = NgitwsObjectMapper.getNgitwsDateAwareObjectMapper().createGeneratorWithoutClosing(out);
+            generator.setRootValueSeparator(null);
+        }
+        if (spilledCount == spilled.length){
+            spilled = Arrays.copyOf(spilled, Math.max(16, spilledCount * 2));
+        }
+        spilled[spilledCount++] = written | ((long)classIndex(record) << CLASS_SHIFT);
+        NgitwsObjectMapper.getNgitwsDateAwareObjectMapper().writeValue(generator, record);
+        //writeValue flushes the generator's buffer, so the count is exact
+        written = out.count;
+    }
+
+    /**
+     * Gets the index of the record's class, adding it if it's new. Index 0 is
+     * used for null.
+     */
+    private int classIndex(T record){
+        Class<?> type = (record == null) ? null : record.getClass();
+        int index = classes.indexOf(type);
+        if (index < 0){
+            if (classes.isEmpty() && type != null){
+                classes.add(null);
+            }
+            classes.add(type);
+            index = classes.size() - 1;
+        }
+        return index;
+    }
+
+    private void finishWriting() throws IOException {
+        if (out != null){
+            generator.close();
+            out.target.close();
+            out = null;
+            in = new RandomAccessFile(file, "r");
+        }
+    }
+
+    @Override
+    public T get(int index) {
+        if (index < held.size()){
+            return held.get(index);
+        }
+        int i = index - held.size();
+        if (i >= spilledCount || index < 0){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        long start = spilled[i] & OFFSET_MASK;
+        long end = (i + 1 < spilledCount) ? (spilled[i + 1] & OFFSET_MASK) : written;
+        Class<?> type = classes.get((int)(spilled[i] >>> CLASS_SHIFT));
+        try {
+            return readSpilled(start, (int)(end - start), type);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Problem reading a spilled record", ex);
+        }
+    }
+
+    private synchronized T readSpilled(long start, int length, Class<?> type) throws IOException {
+        if (in == null){
+            throw new IllegalStateException("The list has been closed");
+        }
+        byte[] data;
+        int offset;
+        if (start >= blockStart && start + length <= blockStart + blockLength){
+            data = block;
+            offset = (int)(start - blockStart);
+        }else if (length <= block.length){
+            in.seek(start);
+            blockStart = start;
+            blockLength = (int)Math.min(block.length, written - start);
+            in.readFully(block, 0, blockLength);
+            data = block;
+            offset = 0;
+        }else{
+            data = new byte[length];
+            offset = 0;
+            in.seek(start);
+            in.readFully(data);
+        }
+        Class<?> readAs = (type == null) ? Object.class : type;
+        return (T)NgitwsObjectMapper.getNgitwsDateAwareObjectMapper().readValue(data, offset, length, readAs);
+    }
+
+    @Override
+    public int size() {
+        return held.size() + spilledCount;
+    }
+
+    /**
+     * Deletes the temp file. The list keeps its size and the records held in
+     * memory can still be read, but getting a spilled record throws an
+     * IllegalStateException.
+     *
+     * @throws IOException If the file can't be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (out != null){
+                out.target.close();
+                out = null;
+            }
+            if (in != null){
+                in.close();
+                in = null;
+            }
+        } finally {
+            if (file != null){
+                Files.deleteIfExists(file.toPath());
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written through it. Flushing does nothing, so the
+     * buffered file stream isn't flushed after every record.
+     */
+    private static final class CountingStream extends OutputStream {
+        private final OutputStream target;
+        private long count = 0;
+
+        private CountingStream(OutputStream target){
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+}
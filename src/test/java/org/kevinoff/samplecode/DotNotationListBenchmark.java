@@ -0,0 +1,114 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times positional access on a DotNotationList against a LinkedList, which is
+ * what DotNotationList used to extend, so the LinkedList figures for get and
+ * set are what those operations cost before it was backed by an array. The
+ * old dot path walk can't be timed any more, so getProperty only has the
+ * DotNotationList figure.
+ * <p>
+ * Every positional operation uses the same sequence of random indexes, so
+ * the figures can be compared with each other. It is a plain main rather than
+ * a test so the build doesn't run it:
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) org.kevinoff.samplecode.DotNotationListBenchmark
+ * </pre>
+ *
+ * @author kevin.off
+ */
+public class DotNotationListBenchmark {
+
+    private static final int SIZE = 100_000;
+    private static final int OPERATIONS = 20_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args){
+        LinkedList<Integer> linked = new LinkedList<>();
+        for (int i = 0; i < SIZE; i++){
+            linked.add(i);
+        }
+        Random random = new Random(42);
+        int[] indexes = new int[OPERATIONS];
+        DotPath[] paths = new DotPath[OPERATIONS];
+        String[] strings = new String[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++){
+            indexes[i] = random.nextInt(SIZE);
+            strings[i] = String.valueOf(indexes[i]);
+            paths[i] = DotPath.compile(strings[i]);
+        }
+
+        for (int round = 1; round <= ROUNDS; round++){
+            System.out.println("Round " + round + ", " + SIZE + " elements, " + OPERATIONS + " random indexes");
+
+            long start = System.nanoTime();
+            DotNotationList<Integer> list = new DotNotationList<>(linked);
+            System.out.printf("  copy constructor from LinkedList  %10.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+            long sink = 0;
+            start = System.nanoTime();
+            for (int index : indexes){
+                sink += linked.get(index);
+            }
+            long linkedGet = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int index : indexes){
+                sink += list.get(index);
+            }
+            long arrayGet = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (DotPath path : paths){
+                sink += list.<Integer>getProperty(path);
+            }
+            long arrayPath = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String path : strings){
+                sink += list.<Integer>getProperty(path);
+            }
+            long arrayString = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int index : indexes){
+                linked.set(index, index);
+            }
+            long linkedSet = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int index : indexes){
+                list.set(index, index);
+            }
+            long arraySet = System.nanoTime() - start;
+
+            print("get(int)", linkedGet, arrayGet);
+            print("getProperty(DotPath)", arrayPath);
+            print("getProperty(String)", arrayString);
+            print("set(int)", linkedSet, arraySet);
+            System.out.println("  (" + sink + ")");
+        }
+    }
+
+    /**
+     * Prints the time per operation, with the LinkedList figure standing in
+     * for what the operation cost before
+     */
+    private static void print(String name, long linked, long array){
+        System.out.printf("  %-22s LinkedList %10.1f ns/op   DotNotationList %8.1f ns/op%n", name, (double)linked / OPERATIONS, (double)array / OPERATIONS);
+    }
+
+    /**
+     * Prints the time per operation of one that has no LinkedList figure
+     */
+    private static void print(String name, long array){
+        System.out.printf("  %-22s %-30sDotNotationList %8.1f ns/op%n", name, "", (double)array / OPERATIONS);
+    }
+
+    private DotNotationListBenchmark(){}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.kevinoff.samplecode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Times an IteratorToInputStream read directly against the same stream read
+ * through {@link IteratorToInputStream#pipelined()}, with latency on both
+ * sides: the source waits 2 ms every 500 records, like a database cursor
+ * fetching the next batch, and the consumer waits 0.5 ms per 8 KB, like a
+ * slow socket.
+ * <p>
+ * It is a plain main rather than a test so the build doesn't run it:
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) org.kevinoff.samplecode.PipelinedInputStreamBenchmark
+ * </pre>
+ *
+ * @author kevin.off
+ */
+public class PipelinedInputStreamBenchmark {
+
+    private static final int RECORDS = 200_000;
+    private static final int RECORDS_PER_FETCH = 500;
+    private static final long FETCH_NANOS = 2_000_000;
+    private static final int READ_SIZE = 8 * 1024;
+    private static final long READ_NANOS = 500_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        for (int round = 1; round <= ROUNDS; round++){
+            System.out.println("Round " + round + ", " + RECORDS + " records");
+
+            long start = System.nanoTime();
+            long bytes = drain(IteratorToInputStream.jsonObjectIteratorToJsonArrayInputStream(records()));
+            System.out.printf("  direct     %8.1f ms  %,d bytes%n", (System.nanoTime() - start) / 1e6, bytes);
+
+            start = System.nanoTime();
+            try (InputStream in = IteratorToInputStream.jsonObjectIteratorToJsonArrayInputStream(records()).pipelined()){
+                bytes = drain(in);
+            }
+            System.out.printf("  pipelined  %8.1f ms  %,d bytes%n", (System.nanoTime() - start) / 1e6, bytes);
+        }
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[READ_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) >= 0){
+            total += n;
+            pause(READ_NANOS);
+        }
+        return total;
+    }
+
+    private static Iterator<String> records(){
+        return new Iterator<String>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext(){
+                return next < RECORDS;
+            }
+
+            @Override
+            public String next(){
+                if (next % RECORDS_PER_FETCH == 0){
+                    pause(FETCH_NANOS);
+                }
+                int i = next++;
+                return "{\"id\":" + i + ",\"name\":\"record " + i + "\",\"active\":" + (i % 2 == 0)
+                        + ",\"score\":" + (i * 0.5) + ",\"tags\":[\"a\",\"b\",\"c\"]}";
+            }
+        };
+    }
+
+    private static void pause(long nanos){
+        long end = System.nanoTime() + nanos;
+        long left;
+        while ((left = end - System.nanoTime()) > 0){
+            LockSupport.parkNanos(left);
+        }
+    }
+
+}